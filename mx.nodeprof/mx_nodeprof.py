@@ -199,6 +199,10 @@ def runJalangi(args, excl="", outFile=None, tracable=True):
 
     parsed, args = parser.parse_known_args(args)
 
+    # other NodeProf options (e.g., --nodeprof.TraceFile=...) go to the VM, not to jalangi.js
+    nodeprofOpts = [a for a in args if a.startswith('--nodeprof.')]
+    args = [a for a in args if not a.startswith('--nodeprof.')]
+
     # process analysis args
     for analysis_arg in parsed.analysis:
         # check if analysis file exists
@@ -215,9 +219,30 @@ def runJalangi(args, excl="", outFile=None, tracable=True):
     # exclude analyses by default
     excl = ','.join([i for i in parsed.excl.split(',') if i != ''] + [os.path.abspath(i) for i in parsed.analysis])
 
-    jalangiArgs = (["--vm.Xrunjdwp:transport=dt_socket,server=y,suspend=y,address=8000"] if parsed.debugger else []) + ["--nodeprof.Scope="+parsed.scope] + (["--nodeprof.ExcludeSource="+excl] if len(excl) else []) + (["--nodeprof.SymbolicLocations=true"] if parsed.symbolic_locs else []) + jalangiArgs + jalangiAnalysisArg
+    jalangiArgs = (["--vm.Xrunjdwp:transport=dt_socket,server=y,suspend=y,address=8000"] if parsed.debugger else []) + ["--nodeprof.Scope="+parsed.scope] + (["--nodeprof.ExcludeSource="+excl] if len(excl) else []) + (["--nodeprof.SymbolicLocations=true"] if parsed.symbolic_locs else []) + nodeprofOpts + jalangiArgs + jalangiAnalysisArg
     _runJalangi(jalangiArgs, outFile=outFile, svm=parsed.svm, debug=parsed.debug, trace=(tracable and parsed.trace));
 
+def traceDecode(args):
+    """print a binary trace written with --nodeprof.TraceFile"""
+    if len(args) != 1:
+        mx.abort("Usage: mx trace-decode trace-file")
+    mx.run_java(mx.get_runtime_jvm_args(['NODEPROF']) + ['ch.usi.inf.nodeprof.utils.BinaryTraceDecoder'] + args)
+
+def benchDispatch(args):
+    """run the JMH dispatch overhead benchmarks, results are written as JSON (default: nodeprof-bench.json)"""
+    parser = ArgumentParser(prog="mx bench-dispatch", description="Run the NodeProf dispatch overhead benchmarks (other arguments go to JMH)")
+    parser.add_argument("--results", help="JSON result file", default="nodeprof-bench.json")
+    parsed, args = parser.parse_known_args(args)
+    mx.run_java(mx.get_runtime_jvm_args(['ch.usi.inf.nodeprof.bench']) + ['org.openjdk.jmh.Main', '-rf', 'json', '-rff', parsed.results] + args)
+
+def benchOverhead(args):
+    """run the JS workloads of src/ch.usi.inf.nodeprof.bench/js with every Jalangi callback and write the slowdowns as JSON (default: nodeprof-overhead.json)"""
+    mx.run_java(mx.get_runtime_jvm_args(['ch.usi.inf.nodeprof.bench']) + ['ch.usi.inf.nodeprof.bench.OverheadRunner'] + args)
+
+def benchFootprint(args):
+    """load JS bundles with every Jalangi callback and write the retained heap of the instrumentation as JSON (default: nodeprof-footprint.json)"""
+    mx.run_java(mx.get_runtime_jvm_args(['ch.usi.inf.nodeprof.bench']) + ['ch.usi.inf.nodeprof.bench.FootprintRunner'] + args)
+
 def unitTests(args):
     """run tests for the example analysis"""
     print("Starting JUnit Test")
@@ -305,6 +330,10 @@ mx.update_commands(_suite, {
     'test-npm': [testNpm, ''],
     'jalangi': [runJalangi, ''],
     'jnode': [runJNode, ''],
+    'trace-decode': [traceDecode, ''],
+    'bench-dispatch': [benchDispatch, '[--results file] [JMH options]'],
+    'bench-footprint': [benchFootprint, '[--repetitions=N] [--callbacks=cb1,cb2] [--out=file] [bundle.js|dir]*'],
+    'bench-overhead': [benchOverhead, '[--rounds=N] [--steady=N] [--callbacks=cb1,cb2] [--out=file] [workload.js|dir]*'],
     'checkcopyrights-nodeprof': [checkCopyrightHeaders, ''],
     'npm-deps': [npmDeps, ''],
 })
@@ -59,6 +59,19 @@ suite = {
       "testProject": True,
       "checkstyle" : "ch.usi.inf.nodeprof",
     },
+    "ch.usi.inf.nodeprof.bench" : {
+      "subDir" : "src",
+      "sourceDirs" : ["src"],
+      "dependencies" : [
+        "ch.usi.inf.nodeprof",
+        "mx:JMH_1_21"
+      ],
+      "annotationProcessors" : ["mx:JMH_1_21"],
+      "javaCompliance" : "11+",
+      "workingSets" : "Truffle,JavaScript,Bench",
+      "testProject": True,
+      "checkstyle" : "ch.usi.inf.nodeprof",
+    },
   },
 
   "distributions" : {
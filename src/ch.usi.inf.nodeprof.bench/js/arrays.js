@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// element reads and writes, builtins and closures
+function benchmark() {
+  var a = new Array(20000);
+  var seed = 42;
+  for (var i = 0; i < a.length; i++) {
+    seed = (seed * 1103515245 + 12345) & 0x7fffffff;
+    a[i] = seed % 10000;
+  }
+  a.sort(function (x, y) {
+    return x - y;
+  });
+  var sum = a.filter(function (x) {
+    return x % 2 === 0;
+  }).map(function (x) {
+    return x * 2;
+  }).reduce(function (s, x) {
+    return s + x;
+  }, 0);
+  return sum + a[0];
+}
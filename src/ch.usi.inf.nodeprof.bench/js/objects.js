@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// object allocation, property reads and writes
+function Vec(x, y) {
+  this.x = x;
+  this.y = y;
+}
+
+Vec.prototype.add = function (other) {
+  return new Vec(this.x + other.x, this.y + other.y);
+};
+
+function benchmark() {
+  var acc = new Vec(0, 0);
+  var points = [];
+  for (var i = 0; i < 1000; i++) {
+    points.push({pos: new Vec(i, -i), weight: i % 7});
+  }
+  for (var round = 0; round < 50; round++) {
+    for (var j = 0; j < points.length; j++) {
+      var p = points[j];
+      if (p.weight > 3) {
+        acc = acc.add(p.pos);
+      }
+      p.weight = (p.weight + 1) % 7;
+    }
+  }
+  return acc.x + acc.y;
+}
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// string building, regular expressions and JSON
+function benchmark() {
+  var parts = [];
+  for (var i = 0; i < 5000; i++) {
+    parts.push('item' + i + ':' + (i * 31 % 97));
+  }
+  var text = parts.join(',');
+  var count = 0;
+  text.replace(/item(\d+):(\d+)/g, function (m, id, val) {
+    if (parseInt(val) > 50) {
+      count++;
+    }
+    return m;
+  });
+  var obj = JSON.parse(JSON.stringify({text: text.substring(0, 1000), count: count}));
+  return obj.count + obj.text.length;
+}
@@ -0,0 +1,196 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+import com.oracle.truffle.js.lang.JavaScriptLanguage;
+
+import ch.usi.inf.nodeprof.NodeProfInstrument;
+import ch.usi.inf.nodeprof.jalangi.JalangiAnalysis;
+import ch.usi.inf.nodeprof.jalangi.NodeProfJalangi;
+import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
+import ch.usi.inf.nodeprof.utils.Logger;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+
+/**
+ * Creating contexts with NodeProf analyses for the benchmarks, without Node.js and jalangi.js.
+ */
+final class BenchSupport {
+
+    private BenchSupport() {
+    }
+
+    static Context createContext() {
+        Context context = Context.create(JavaScriptLanguage.ID);
+        context.eval(JavaScriptLanguage.ID, "");
+        GlobalObjectCache.reset();
+        return context;
+    }
+
+    static void closeContext(Context context) {
+        context.close();
+        SourceMapping.reset();
+    }
+
+    static NodeProfInstrument getInstrument(Context context) {
+        return context.getEngine().getInstruments().get(NodeProfInstrument.ID).lookup(NodeProfInstrument.class);
+    }
+
+    /**
+     * Creates the NodeProf Jalangi analysis and defines __jalangiAdapter in the context.
+     */
+    static NodeProfJalangi loadJalangi(Context context) throws Exception {
+        NodeProfInstrument instrument = getInstrument(context);
+        NodeProfJalangi jalangi = new NodeProfJalangi(instrument);
+        // the adapter is created in the context
+        context.enter();
+        try {
+            jalangi.onLoad();
+        } finally {
+            context.leave();
+        }
+        return jalangi;
+    }
+
+    /**
+     * Registers the callbacks of a Jalangi analysis object, similar to J$.addAnalysis.
+     *
+     * @param analysis JavaScript expression creating the analysis object
+     * @param callbacks the callbacks to register, null to register all functions of the object
+     */
+    static void addJalangiAnalysis(Context context, String analysis, Collection<String> callbacks) {
+        StringBuilder enabled = new StringBuilder("null");
+        if (callbacks != null) {
+            enabled = new StringBuilder("[");
+            for (String cb : callbacks) {
+                enabled.append(enabled.length() > 1 ? ", " : "").append('\'').append(cb).append('\'');
+            }
+            enabled.append(']');
+        }
+        String code = "// DO NOT INSTRUMENT\n" +
+                        "(function(analysis, enabled) {\n" +
+                        "  for (var key in analysis) {\n" +
+                        "    if (typeof analysis[key] == 'function' && (enabled === null || enabled.indexOf(key) > -1)) {\n" +
+                        "      __jalangiAdapter.registerCallback(analysis, key, analysis[key]);\n" +
+                        "    }\n" +
+                        "  }\n" +
+                        "  __jalangiAdapter.onReady(analysis);\n" +
+                        "})(" + analysis + ", " + enabled + ");";
+        context.eval(Source.create(JavaScriptLanguage.ID, code));
+    }
+
+    /**
+     * @return emptyTemplate.js, the Jalangi analysis with all callbacks
+     */
+    static File getTemplate() {
+        return new File(getNodeProfHome(), "src/ch.usi.inf.nodeprof/js/analysis/trivial/emptyTemplate.js");
+    }
+
+    /**
+     * @return the callbacks of emptyTemplate.js which are supported by NodeProf
+     */
+    static List<String> getTemplateCallbacks() throws IOException {
+        Context context = createContext();
+        try {
+            context.eval(JavaScriptLanguage.ID, "J$ = {};");
+            context.eval(readSource(getTemplate()));
+            Value names = context.eval(JavaScriptLanguage.ID, "Object.keys(J$.analysis).filter(function(k) { return typeof J$.analysis[k] == 'function'; })");
+            List<String> result = new ArrayList<>();
+            for (long i = 0; i < names.getArraySize(); i++) {
+                String name = names.getArrayElement(i).asString();
+                if (!JalangiAnalysis.unimplementedCallbacks.contains(name) && !JalangiAnalysis.ignoredCallbacks.contains(name)) {
+                    result.add(name);
+                }
+            }
+            return result;
+        } finally {
+            closeContext(context);
+        }
+    }
+
+    /**
+     * Loads emptyTemplate.js as Jalangi analysis.
+     *
+     * @param callbacks the callbacks of the template to register
+     */
+    static NodeProfJalangi addTemplateAnalysis(Context context, Collection<String> callbacks) throws Exception {
+        NodeProfJalangi jalangi = loadJalangi(context);
+        context.eval(JavaScriptLanguage.ID, "J$ = {};");
+        context.eval(readSource(getTemplate()));
+        addJalangiAnalysis(context, "J$.analysis", callbacks);
+        return jalangi;
+    }
+
+    /**
+     * @return the root of the NodeProf repository, found by walking up to mx.nodeprof
+     */
+    static File getNodeProfHome() {
+        File dir = new File(new File(".").getAbsolutePath());
+        do {
+            dir = dir.getParentFile();
+        } while (dir != null && dir.list() != null && !Arrays.asList(dir.list()).contains("mx.nodeprof"));
+        if (dir == null) {
+            throw new IllegalStateException("cannot find the NodeProf home (containing mx.nodeprof)");
+        }
+        return dir;
+    }
+
+    static Source readSource(File file) throws IOException {
+        return Source.newBuilder(JavaScriptLanguage.ID, file).build();
+    }
+
+    /**
+     * @return the directory of the JavaScript workloads of the benchmarks
+     */
+    static File getWorkloadDir() {
+        return new File(getNodeProfHome(), "src/ch.usi.inf.nodeprof.bench/js");
+    }
+
+    /**
+     * Adds a workload file or all .js files of a directory.
+     */
+    static void addWorkloads(List<File> workloads, File f) {
+        if (f.isDirectory()) {
+            File[] files = f.listFiles((dir, name) -> name.endsWith(".js"));
+            Arrays.sort(files);
+            workloads.addAll(Arrays.asList(files));
+        } else if (f.isFile()) {
+            workloads.add(f);
+        } else {
+            Logger.error("workload " + f + " does not exist");
+            System.exit(-1);
+        }
+    }
+
+    static String toJSON(double[] values) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            sb.append(i > 0 ? ", " : "").append(values[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,209 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.bench;
+
+import java.util.EnumMap;
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.oracle.truffle.js.lang.JavaScriptLanguage;
+
+import ch.usi.inf.nodeprof.NodeProfInstrument;
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.NodeProfAnalysis;
+
+/**
+ * Per-event cost of the NodeProf dispatch for every ProfiledTagEnum.
+ *
+ * Each workload is a loop in which every iteration executes (at least) one node of the measured
+ * tag, so the score is the time of one iteration. The overhead of an event is the difference
+ * between the scores of JAVA or JALANGI and NONE for the same tag.
+ *
+ * The tags are split into the two subclasses, because JMH runs every combination of the
+ * parameters and the tags without a Jalangi callback (CF_BLOCK) cannot be measured with JALANGI.
+ *
+ * Run with "mx bench-dispatch", which writes the results as JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class DispatchOverheadBenchmark {
+
+    private static final int ITERATIONS = 10000;
+
+    public enum Analysis {
+        /**
+         * the workload without any analysis
+         */
+        NONE,
+        /**
+         * an empty Java handler, see EmptyHandlerAnalysis
+         */
+        JAVA,
+        /**
+         * an empty Jalangi callback
+         */
+        JALANGI
+    }
+
+    /**
+     * the tags with a Jalangi callback, with every analysis
+     */
+    public static class CallbackTags extends DispatchOverheadBenchmark {
+        @Param({"UNARY", "BINARY", "CF_BRANCH", "CF_ROOT", "EVAL", "DECLARE", "VAR_READ", "VAR_WRITE", "PROPERTY_READ", "PROPERTY_WRITE", "ELEMENT_READ", "ELEMENT_WRITE", "INVOKE", "ROOT",
+                        "BUILTIN", "LITERAL", "STATEMENT", "NEW", "EXPRESSION"}) public ProfiledTagEnum tag;
+
+        @Param public Analysis analysis;
+
+        @Override
+        ProfiledTagEnum getTag() {
+            return tag;
+        }
+
+        @Override
+        Analysis getAnalysis() {
+            return analysis;
+        }
+    }
+
+    /**
+     * the tags without a Jalangi callback, without JALANGI
+     */
+    public static class NoCallbackTags extends DispatchOverheadBenchmark {
+        @Param({"CF_BLOCK"}) public ProfiledTagEnum tag;
+
+        @Param({"NONE", "JAVA"}) public Analysis analysis;
+
+        @Override
+        ProfiledTagEnum getTag() {
+            return tag;
+        }
+
+        @Override
+        Analysis getAnalysis() {
+            return analysis;
+        }
+    }
+
+    abstract ProfiledTagEnum getTag();
+
+    abstract Analysis getAnalysis();
+
+    private Context context;
+    private Value workload;
+
+    /**
+     * declarations and loop body of the workload of each tag
+     */
+    private static final EnumMap<ProfiledTagEnum, String[]> workloads = new EnumMap<>(ProfiledTagEnum.class);
+
+    /**
+     * the Jalangi callback triggered by each tag, CF_BLOCK has no callback
+     */
+    private static final EnumMap<ProfiledTagEnum, String> jalangiCallbacks = new EnumMap<>(ProfiledTagEnum.class);
+
+    private static void addWorkload(ProfiledTagEnum t, String jalangiCallback, String declarations, String body) {
+        workloads.put(t, new String[]{declarations, body});
+        if (jalangiCallback != null) {
+            jalangiCallbacks.put(t, jalangiCallback);
+        }
+    }
+
+    static {
+        addWorkload(ProfiledTagEnum.UNARY, "unary", "", "s = -s;");
+        addWorkload(ProfiledTagEnum.BINARY, "binary", "", "s = s + i;");
+        addWorkload(ProfiledTagEnum.CF_BRANCH, "conditional", "", "if (s) { s = 0; } else { s = 1; }");
+        addWorkload(ProfiledTagEnum.CF_BLOCK, null, "", "{ s = i; }");
+        addWorkload(ProfiledTagEnum.CF_ROOT, "asyncFunctionEnter", "async function f() {}", "f();");
+        addWorkload(ProfiledTagEnum.EVAL, "evalPre", "", "s = eval('1');");
+        addWorkload(ProfiledTagEnum.DECLARE, "declare", "function f(x) { let a = x; return a; }", "s = f(i);");
+        addWorkload(ProfiledTagEnum.VAR_READ, "read", "var v = 1;", "s = v;");
+        addWorkload(ProfiledTagEnum.VAR_WRITE, "write", "", "s = i;");
+        addWorkload(ProfiledTagEnum.PROPERTY_READ, "getField", "var o = {p: 1};", "s = o.p;");
+        addWorkload(ProfiledTagEnum.PROPERTY_WRITE, "putField", "var o = {p: 1};", "o.p = i;");
+        addWorkload(ProfiledTagEnum.ELEMENT_READ, "getField", "var a = [1, 2, 3, 4];", "s = a[i & 3];");
+        addWorkload(ProfiledTagEnum.ELEMENT_WRITE, "putField", "var a = [1, 2, 3, 4];", "a[i & 3] = i;");
+        addWorkload(ProfiledTagEnum.INVOKE, "invokeFunPre", "function f(x) { return x; }", "s = f(i);");
+        addWorkload(ProfiledTagEnum.ROOT, "functionEnter", "function f(x) { return x; }", "s = f(i);");
+        addWorkload(ProfiledTagEnum.BUILTIN, "builtinEnter", "", "s = Math.abs(i);");
+        addWorkload(ProfiledTagEnum.LITERAL, "literal", "", "s = 42;");
+        addWorkload(ProfiledTagEnum.STATEMENT, "startStatement", "", "s = i;");
+        addWorkload(ProfiledTagEnum.NEW, "invokeFunPre", "function C() {}", "s = new C();");
+        addWorkload(ProfiledTagEnum.EXPRESSION, "startExpression", "", "s = i;");
+    }
+
+    static String getWorkload(ProfiledTagEnum t) {
+        String[] w = workloads.get(t);
+        return "(function() {\n" + w[0] + "\nreturn function(n) {\nvar s = 0;\nfor (var i = 0; i < n; i++) {\n" + w[1] + "\n}\nreturn s;\n};\n})()";
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ProfiledTagEnum tag = getTag();
+        context = BenchSupport.createContext();
+        switch (getAnalysis()) {
+            case NONE:
+                break;
+            case JAVA: {
+                NodeProfInstrument instrument = BenchSupport.getInstrument(context);
+                NodeProfAnalysis javaAnalysis = new EmptyHandlerAnalysis(tag, instrument.getInstrumenter(), instrument.getEnv());
+                javaAnalysis.initCallbacks();
+                javaAnalysis.analysisReady();
+                break;
+            }
+            case JALANGI: {
+                String callback = jalangiCallbacks.get(tag);
+                assert callback != null : "no Jalangi callback for " + tag;
+                BenchSupport.loadJalangi(context);
+                BenchSupport.addJalangiAnalysis(context, "{" + callback + ": function() {}}", null);
+                break;
+            }
+        }
+        workload = context.eval(Source.newBuilder(JavaScriptLanguage.ID, getWorkload(tag), "workload.js").build());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchSupport.closeContext(context);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITERATIONS)
+    public Value dispatch() {
+        return workload.execute(ITERATIONS);
+    }
+}
@@ -0,0 +1,62 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.bench;
+
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFactory;
+import ch.usi.inf.nodeprof.analysis.NodeProfAnalysis;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+
+/**
+ * Java analysis with a handler doing nothing for a single tag, i.e., the handler only costs the
+ * dispatch of ProfilerExecutionEventNode (and saving the inputs of the tag).
+ */
+public class EmptyHandlerAnalysis extends NodeProfAnalysis {
+    private final ProfiledTagEnum tag;
+
+    public EmptyHandlerAnalysis(ProfiledTagEnum tag, Instrumenter instrumenter, Env env) {
+        super("empty-" + tag.name(), instrumenter, env);
+        this.tag = tag;
+    }
+
+    @Override
+    public void initCallbacks() {
+        this.onCallback(tag, new AnalysisFactory<BaseEventHandlerNode>() {
+            @Override
+            public BaseEventHandlerNode create(EventContext context) {
+                return new BaseEventHandlerNode(context) {
+                    @Override
+                    public int expectedNumInputs() {
+                        return tag.getExpectedNumInputs();
+                    }
+                };
+            }
+        });
+    }
+
+    @Override
+    public void onClear() {
+    }
+
+    @Override
+    public void printResult() {
+    }
+}
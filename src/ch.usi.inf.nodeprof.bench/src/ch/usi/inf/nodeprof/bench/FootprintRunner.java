@@ -0,0 +1,189 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+
+import com.oracle.truffle.js.lang.JavaScriptLanguage;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.utils.Logger;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+
+/**
+ * Measures the heap retained by the instrumentation (event nodes, handlers, callback nodes and
+ * SourceMapping entries) of JavaScript bundles for the same configurations as OverheadRunner.
+ *
+ * Every bundle is loaded in a new context and its function benchmark() is called once if it
+ * exists. The heap used with the context alive is compared to the plain configuration, and the
+ * difference is reported per instrumented node, per IID, per source and per 1000 lines.
+ *
+ * Usage: FootprintRunner [--repetitions=N] [--callbacks=cb1,cb2] [--out=file] [bundle.js|dir]*
+ *
+ * Without bundles, the esprima/estraverse bundle.js of jalangi.js (see mx npm-deps) and the
+ * workloads of OverheadRunner are loaded.
+ */
+public class FootprintRunner {
+
+    private static final String PLAIN = "plain";
+    private static final String EMPTY = "empty";
+    private static final String ALL = "all";
+
+    private int repetitions = 3;
+    private List<String> callbacks = null;
+    private String out = "nodeprof-footprint.json";
+    private final List<File> bundles = new ArrayList<>();
+
+    /**
+     * the instrumentation counters of one configuration
+     */
+    private static final class Footprint {
+        long heap = Long.MAX_VALUE;
+        long nodes;
+        int iids;
+        int sources;
+    }
+
+    public static void main(String[] args) throws Exception {
+        FootprintRunner runner = new FootprintRunner();
+        runner.parseArgs(args);
+        String json = runner.run();
+        Files.write(new File(runner.out).toPath(), json.getBytes(StandardCharsets.UTF_8));
+        Logger.info("results written to " + runner.out);
+    }
+
+    private void parseArgs(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--repetitions=")) {
+                repetitions = Integer.parseInt(arg.substring("--repetitions=".length()));
+            } else if (arg.startsWith("--callbacks=")) {
+                callbacks = Arrays.asList(arg.substring("--callbacks=".length()).split(","));
+            } else if (arg.startsWith("--out=")) {
+                out = arg.substring("--out=".length());
+            } else {
+                BenchSupport.addWorkloads(bundles, new File(arg));
+            }
+        }
+        if (bundles.isEmpty()) {
+            File bundle = new File(BenchSupport.getNodeProfHome(), "src/ch.usi.inf.nodeprof/js/bundle.js");
+            if (bundle.isFile()) {
+                bundles.add(bundle);
+            }
+            BenchSupport.addWorkloads(bundles, BenchSupport.getWorkloadDir());
+        }
+    }
+
+    private String run() throws Exception {
+        List<String> allCallbacks = BenchSupport.getTemplateCallbacks();
+        List<String> single = callbacks != null ? callbacks : allCallbacks;
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"repetitions\": ").append(repetitions).append(",\n  \"bundles\": {");
+        boolean firstBundle = true;
+        for (File bundle : bundles) {
+            long lines;
+            try (Stream<String> stream = Files.lines(bundle.toPath())) {
+                lines = stream.count();
+            }
+            Map<String, Footprint> results = new LinkedHashMap<>();
+            results.put(PLAIN, measure(bundle, null));
+            results.put(EMPTY, measure(bundle, Collections.emptyList()));
+            for (String cb : single) {
+                results.put(cb, measure(bundle, Collections.singletonList(cb)));
+            }
+            results.put(ALL, measure(bundle, allCallbacks));
+
+            long plain = results.get(PLAIN).heap;
+            json.append(firstBundle ? "\n" : ",\n").append("    \"").append(bundle.getName()).append("\": {\n      \"lines\": ").append(lines);
+            firstBundle = false;
+            for (Map.Entry<String, Footprint> entry : results.entrySet()) {
+                Footprint f = entry.getValue();
+                long retained = f.heap - plain;
+                json.append(",\n      \"").append(entry.getKey()).append("\": {");
+                json.append("\"heap\": ").append(f.heap);
+                json.append(", \"retained\": ").append(retained);
+                json.append(", \"nodes\": ").append(f.nodes);
+                json.append(", \"iids\": ").append(f.iids);
+                json.append(", \"sources\": ").append(f.sources);
+                json.append(", \"perNode\": ").append(f.nodes == 0 ? 0 : retained / f.nodes);
+                json.append(", \"perIID\": ").append(f.iids == 0 ? 0 : retained / f.iids);
+                json.append(", \"perSource\": ").append(f.sources == 0 ? 0 : retained / f.sources);
+                json.append(", \"perKLOC\": ").append(lines == 0 ? 0 : retained * 1000 / lines).append('}');
+                Logger.info(bundle.getName() + " " + entry.getKey() + ": " + retained / 1024 + " KB retained, " + f.nodes + " nodes, " + f.iids + " iids");
+            }
+            json.append("\n    }");
+        }
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Loads a bundle in a new context, the heap is the minimum of all repetitions.
+     *
+     * @param enabled the Jalangi callbacks to register, null to run without NodeProf analysis
+     */
+    private Footprint measure(File bundle, List<String> enabled) throws Exception {
+        Footprint result = new Footprint();
+        for (int i = 0; i < repetitions; i++) {
+            ProfiledTagEnum.resetCounters();
+            long before = usedHeap();
+            Context context = BenchSupport.createContext();
+            try {
+                if (enabled != null) {
+                    BenchSupport.addTemplateAnalysis(context, enabled);
+                }
+                context.eval(BenchSupport.readSource(bundle));
+                Value benchmark = context.getBindings(JavaScriptLanguage.ID).getMember("benchmark");
+                if (benchmark != null && benchmark.canExecute()) {
+                    benchmark.execute();
+                }
+                // the context is still alive here
+                result.heap = Math.min(result.heap, usedHeap() - before);
+                result.nodes = 0;
+                for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+                    result.nodes += tag.nodeCount;
+                }
+                result.iids = SourceMapping.getIndexCount();
+                result.sources = SourceMapping.getSourceCount();
+            } finally {
+                BenchSupport.closeContext(context);
+            }
+        }
+        return result;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,173 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.bench;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+
+import com.oracle.truffle.js.lang.JavaScriptLanguage;
+
+import ch.usi.inf.nodeprof.jalangi.NodeProfJalangi;
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * Runs a corpus of JavaScript workloads for many rounds in one engine and reports the warmup
+ * curves and the steady-state slowdown of NodeProf Jalangi callbacks as JSON.
+ *
+ * A workload is a script defining a global function benchmark(), which is called once per round.
+ * Every workload is run with the following configurations, each in a new context:
+ * <ul>
+ * <li>plain: without NodeProf analysis</li>
+ * <li>empty: NodeProf with a Jalangi analysis without callbacks</li>
+ * <li>one configuration per callback of emptyTemplate.js, with only this callback registered</li>
+ * <li>all: all callbacks of emptyTemplate.js</li>
+ * </ul>
+ *
+ * Usage: OverheadRunner [--rounds=N] [--steady=N] [--callbacks=cb1,cb2] [--out=file]
+ * [workload.js|directory]*
+ */
+public class OverheadRunner {
+
+    private static final String PLAIN = "plain";
+    private static final String EMPTY = "empty";
+    private static final String ALL = "all";
+
+    private int rounds = 30;
+    private int steadyRounds = 10;
+    private List<String> callbacks = null;
+    private String out = "nodeprof-overhead.json";
+    private final List<File> workloads = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        OverheadRunner runner = new OverheadRunner();
+        runner.parseArgs(args);
+        String json = runner.run();
+        Files.write(new File(runner.out).toPath(), json.getBytes(StandardCharsets.UTF_8));
+        Logger.info("results written to " + runner.out);
+    }
+
+    private void parseArgs(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--rounds=")) {
+                rounds = Integer.parseInt(arg.substring("--rounds=".length()));
+            } else if (arg.startsWith("--steady=")) {
+                steadyRounds = Integer.parseInt(arg.substring("--steady=".length()));
+            } else if (arg.startsWith("--callbacks=")) {
+                callbacks = Arrays.asList(arg.substring("--callbacks=".length()).split(","));
+            } else if (arg.startsWith("--out=")) {
+                out = arg.substring("--out=".length());
+            } else {
+                BenchSupport.addWorkloads(workloads, new File(arg));
+            }
+        }
+        if (workloads.isEmpty()) {
+            BenchSupport.addWorkloads(workloads, BenchSupport.getWorkloadDir());
+        }
+        if (steadyRounds < 1 || steadyRounds > rounds) {
+            Logger.error("--steady must be between 1 and the number of rounds");
+            System.exit(-1);
+        }
+    }
+
+    private String run() throws Exception {
+        List<String> allCallbacks = BenchSupport.getTemplateCallbacks();
+        List<String> single = callbacks != null ? callbacks : allCallbacks;
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"rounds\": ").append(rounds).append(",\n  \"steadyRounds\": ").append(steadyRounds).append(",\n  \"workloads\": {");
+        boolean firstWorkload = true;
+        for (File workload : workloads) {
+            Map<String, double[]> results = new LinkedHashMap<>();
+            results.put(PLAIN, runConfiguration(workload, null));
+            results.put(EMPTY, runConfiguration(workload, Collections.emptyList()));
+            for (String cb : single) {
+                results.put(cb, runConfiguration(workload, Collections.singletonList(cb)));
+            }
+            results.put(ALL, runConfiguration(workload, allCallbacks));
+
+            double plain = steadyState(results.get(PLAIN));
+            json.append(firstWorkload ? "\n" : ",\n").append("    \"").append(workload.getName()).append("\": {");
+            firstWorkload = false;
+            boolean firstConfig = true;
+            for (Map.Entry<String, double[]> entry : results.entrySet()) {
+                double steady = steadyState(entry.getValue());
+                json.append(firstConfig ? "\n" : ",\n").append("      \"").append(entry.getKey()).append("\": {");
+                firstConfig = false;
+                json.append("\"warmup\": ").append(BenchSupport.toJSON(entry.getValue()));
+                json.append(", \"steady\": ").append(steady);
+                json.append(", \"slowdown\": ").append(steady / plain).append('}');
+                Logger.info(workload.getName() + " " + entry.getKey() + ": " + String.format("%.3f ms, %.2fx", steady, steady / plain));
+            }
+            json.append("\n    }");
+        }
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Runs a workload for all rounds in a new context.
+     *
+     * @param enabled the Jalangi callbacks to register, null to run without NodeProf analysis
+     * @return the time of every round in milliseconds
+     */
+    private double[] runConfiguration(File workload, List<String> enabled) throws Exception {
+        Context context = BenchSupport.createContext();
+        try {
+            NodeProfJalangi jalangi = enabled == null ? null : BenchSupport.addTemplateAnalysis(context, enabled);
+            context.eval(BenchSupport.readSource(workload));
+            Value benchmark = context.getBindings(JavaScriptLanguage.ID).getMember("benchmark");
+            if (benchmark == null || !benchmark.canExecute()) {
+                Logger.error(workload + " does not define a function benchmark()");
+                System.exit(-1);
+            }
+            double[] times = new double[rounds];
+            for (int i = 0; i < rounds; i++) {
+                long start = System.nanoTime();
+                benchmark.execute();
+                times[i] = (System.nanoTime() - start) / 1e6;
+                if (jalangi != null) {
+                    // the analysis state must not affect the next round
+                    jalangi.onClear();
+                }
+            }
+            return times;
+        } finally {
+            BenchSupport.closeContext(context);
+        }
+    }
+
+    /**
+     * @return the mean time of the last steadyRounds rounds
+     */
+    private double steadyState(double[] times) {
+        double sum = 0;
+        for (int i = times.length - steadyRounds; i < times.length; i++) {
+            sum += times[i];
+        }
+        return sum / steadyRounds;
+    }
+}
@@ -0,0 +1,100 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.utils.BinaryTraceDecoder;
+import ch.usi.inf.nodeprof.utils.BinaryTraceWriter;
+
+public class BinaryTraceTest {
+
+    private static String[] decode(Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(file); PrintStream out = new PrintStream(bytes, true, "UTF-8")) {
+            new BinaryTraceDecoder(in, out).decode();
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path file = Files.createTempFile("nodeprof", ".trace");
+        try {
+            int tag = ProfiledTagEnum.BINARY.ordinal();
+            BinaryTraceWriter writer = new BinaryTraceWriter(file);
+            int node = writer.node(7, "JSAddNode", "BinaryOperationTag ", "");
+            writer.enter(node, tag);
+            writer.input(node, tag, 0, 2, "JSConstantIntegerNode", -5);
+            writer.input(node, tag, 1, 2, "JSReadCurrentFrameSlotNode", 1L << 40);
+            writer.returnValue(node, tag, "süm");
+            writer.enter(node, tag);
+            writer.returnExceptional(node, tag, new IllegalStateException());
+            writer.close();
+
+            String[] expected = {
+                            String.format("[i] %-7s|tag: %-20s @ %-20s |attr: %-20s", "ENTER", "BinaryOperationTag ", "JSAddNode", ""),
+                            String.format("[i]     %-7s|tag: %-20s @ %-20s|val: %-25s|from: %-20s", "IN 1/2", "BinaryOperationTag ", "JSAddNode", "-5", "JSConstantIntegerNode"),
+                            String.format("[i]     %-7s|tag: %-20s @ %-20s|val: %-25s|from: %-20s", "IN 2/2", "BinaryOperationTag ", "JSAddNode", "1099511627776", "JSReadCurrentFrameSlotNode"),
+                            String.format("[i] %-7s|tag: %-20s @ %-20s |rval: %-20s |attr: %-20s", "RETURN", "BinaryOperationTag ", "JSAddNode", "süm", ""),
+                            String.format("[i] %-7s|tag: %-20s @ %-20s |attr: %-20s", "ENTER", "BinaryOperationTag ", "JSAddNode", ""),
+                            String.format("[i] %-7s|tag: %-20s @ %-20s |rval: %-20s |attr: %-20s", "RET-EXC", "BinaryOperationTag ", "JSAddNode", "IllegalStateException", ""),
+            };
+            assertArrayEquals(expected, decode(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testNodesSharingSourceSection() throws IOException {
+        Path file = Files.createTempFile("nodeprof", ".trace");
+        try {
+            // e.g., a call and its function read have the same source section and thus the same IID
+            int tag = ProfiledTagEnum.INVOKE.ordinal();
+            BinaryTraceWriter writer = new BinaryTraceWriter(file);
+            int call = writer.node(3, "CallNode", "FunctionCallTag ", "");
+            writer.enter(call, tag);
+            int read = writer.node(3, "GlobalPropertyNode", "ReadPropertyTag ", "key: f");
+            writer.enter(read, ProfiledTagEnum.PROPERTY_READ.ordinal());
+            writer.returnValue(read, ProfiledTagEnum.PROPERTY_READ.ordinal(), 1);
+            writer.returnValue(call, tag, 2);
+            writer.close();
+
+            String[] expected = {
+                            String.format("[i] %-7s|tag: %-20s @ %-20s |attr: %-20s", "ENTER", "FunctionCallTag ", "CallNode", ""),
+                            String.format("[i]     %-7s|tag: %-20s @ %-20s |attr: %-20s", "ENTER", "ReadPropertyTag ", "GlobalPropertyNode", "key: f"),
+                            String.format("[i]     %-7s|tag: %-20s @ %-20s |rval: %-20s |attr: %-20s", "RETURN", "ReadPropertyTag ", "GlobalPropertyNode", "1", "key: f"),
+                            String.format("[i] %-7s|tag: %-20s @ %-20s |rval: %-20s |attr: %-20s", "RETURN", "FunctionCallTag ", "CallNode", "2", ""),
+            };
+            assertArrayEquals(expected, decode(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
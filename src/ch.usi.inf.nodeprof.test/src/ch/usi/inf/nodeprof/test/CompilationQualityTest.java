@@ -0,0 +1,343 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+import com.oracle.truffle.js.lang.JavaScriptLanguage;
+
+import ch.usi.inf.nodeprof.NodeProfInstrument;
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFactory;
+import ch.usi.inf.nodeprof.analysis.NodeProfAnalysis;
+import ch.usi.inf.nodeprof.analysis.ProfilerExecutionEventNode;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.jalangi.NodeProfJalangi;
+import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+
+/**
+ * Checks that instrumentation which does nothing is removed by the compiler: the compiled graph of
+ * an instrumented function must not contain more calls (e.g., to TruffleBoundary methods) or
+ * allocations than without instrumentation, and must stay within MAX_GRAPH_SIZE_FACTOR of its
+ * size.
+ *
+ * The graphs are recorded with a listener of the optimizing Truffle runtime, which is registered
+ * via reflection. The tests are skipped on other runtimes.
+ */
+public class CompilationQualityTest {
+
+    private static final double MAX_GRAPH_SIZE_FACTOR = 1.5;
+
+    private static final String TARGET = "compilationQualityTarget";
+
+    private static final String TARGET_SOURCE = "function " + TARGET + "(a, b) {\n" +
+                    "  var x = a * 2;\n" +
+                    "  if (x > b && a !== 3) {\n" +
+                    "    x = x - b;\n" +
+                    "  }\n" +
+                    "  return x + 1;\n" +
+                    "}\n" + TARGET;
+
+    private static final String LOGICAL_TARGET_SOURCE = "function " + TARGET + "(a, b) {\n" +
+                    "  return a && b || a;\n" +
+                    "}\n" + TARGET;
+
+    /**
+     * node types of the graph which are calls or allocations
+     */
+    private static final List<String> CALLS_AND_ALLOCATIONS = Arrays.asList("InvokeNode", "InvokeWithExceptionNode", "NewInstanceNode", "NewArrayNode",
+                    "NewMultiArrayNode", "CommitAllocationNode", "DynamicNewInstanceNode", "DynamicNewArrayNode");
+
+    /**
+     * the graph of TARGET after the Truffle tier (i.e., after partial evaluation)
+     */
+    private static final class GraphRecorder implements InvocationHandler {
+        volatile int nodeCount = -1;
+        volatile String[] nodeTypes;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "GraphRecorder";
+                case "onCompilationTruffleTierFinished":
+                    if (args[0].toString().contains(TARGET)) {
+                        for (Object arg : args) {
+                            if (arg != null && hasMethod(arg, "getNodeCount")) {
+                                nodeCount = (Integer) call(arg, "getNodeCount");
+                                nodeTypes = (String[]) call(arg, "getNodeTypes", true);
+                            }
+                        }
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        }
+
+        private static boolean hasMethod(Object o, String name) {
+            for (Method m : o.getClass().getMethods()) {
+                if (m.getName().equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static Object call(Object o, String name, Object... args) throws Exception {
+            for (Method m : o.getClass().getMethods()) {
+                if (m.getName().equals(name) && m.getParameterCount() == args.length) {
+                    m.setAccessible(true);
+                    return m.invoke(o, args);
+                }
+            }
+            throw new NoSuchMethodException(name);
+        }
+
+        int countCallsAndAllocations() {
+            int count = 0;
+            for (String type : nodeTypes) {
+                if (CALLS_AND_ALLOCATIONS.contains(type)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private GraphRecorder recorder;
+    private Object listener;
+    private Method removeListener;
+    private Context context;
+
+    @Before
+    public void installListener() {
+        Object runtime = Truffle.getRuntime();
+        Method addListener = null;
+        for (Method m : runtime.getClass().getMethods()) {
+            if (m.getName().equals("addListener") && m.getParameterCount() == 1 && m.getParameterTypes()[0].isInterface()) {
+                addListener = m;
+            } else if (m.getName().equals("removeListener") && m.getParameterCount() == 1) {
+                removeListener = m;
+            }
+        }
+        Assume.assumeTrue("requires the optimizing Truffle runtime", addListener != null && removeListener != null);
+        recorder = new GraphRecorder();
+        Class<?> listenerClass = addListener.getParameterTypes()[0];
+        listener = Proxy.newProxyInstance(listenerClass.getClassLoader(), new Class<?>[]{listenerClass}, recorder);
+        try {
+            addListener.setAccessible(true);
+            removeListener.setAccessible(true);
+            addListener.invoke(runtime, listener);
+        } catch (Exception e) {
+            Assume.assumeNoException(e);
+        }
+    }
+
+    @After
+    public void uninstallListener() throws Exception {
+        if (listener != null) {
+            removeListener.invoke(Truffle.getRuntime(), listener);
+        }
+        if (context != null) {
+            context.close();
+            context = null;
+        }
+        ProfilerExecutionEventNode.updateEnabled(true);
+        SourceMapping.reset();
+    }
+
+    private NodeProfInstrument createContext() {
+        if (context != null) {
+            context.close();
+        }
+        context = Context.newBuilder(JavaScriptLanguage.ID).allowExperimentalOptions(true).option("engine.BackgroundCompilation", "false").option("engine.MultiTier", "false").option(
+                        "engine.SingleTierCompilationThreshold", "100").option("engine.CompileOnly", TARGET).build();
+        context.eval(JavaScriptLanguage.ID, "");
+        GlobalObjectCache.reset();
+        return context.getEngine().getInstruments().get(NodeProfInstrument.ID).lookup(NodeProfInstrument.class);
+    }
+
+    /**
+     * Runs TARGET of TARGET_SOURCE until it is compiled.
+     *
+     * @return the recorded graph
+     */
+    private GraphRecorder compileTarget() {
+        return compileTarget(TARGET_SOURCE);
+    }
+
+    private GraphRecorder compileTarget(String source) {
+        recorder.nodeCount = -1;
+        Value target = context.eval(JavaScriptLanguage.ID, source);
+        for (int i = 0; i < 1000 && recorder.nodeCount < 0; i++) {
+            target.execute(i, 7);
+        }
+        assertTrue(TARGET + " was not compiled", recorder.nodeCount > 0);
+        GraphRecorder result = new GraphRecorder();
+        result.nodeCount = recorder.nodeCount;
+        result.nodeTypes = recorder.nodeTypes;
+        return result;
+    }
+
+    private GraphRecorder compileWithoutAnalysis() {
+        createContext();
+        return compileTarget();
+    }
+
+    private static void assertNoOverhead(GraphRecorder baseline, GraphRecorder instrumented) {
+        assertTrue("calls or allocations remain: " + Arrays.toString(instrumented.nodeTypes), instrumented.countCallsAndAllocations() <= baseline.countCallsAndAllocations());
+        assertTrue("graph size " + instrumented.nodeCount + " exceeds " + MAX_GRAPH_SIZE_FACTOR + "x of " + baseline.nodeCount, instrumented.nodeCount <= baseline.nodeCount * MAX_GRAPH_SIZE_FACTOR);
+    }
+
+    /**
+     * Java analysis with the same handler factory for every tag.
+     */
+    private static final class AllTagsAnalysis extends NodeProfAnalysis {
+        private final AnalysisFactory<BaseEventHandlerNode> factory;
+
+        AllTagsAnalysis(Instrumenter instrumenter, Env env, AnalysisFactory<BaseEventHandlerNode> factory) {
+            super("compilation-quality", instrumenter, env);
+            this.factory = factory;
+        }
+
+        @Override
+        public void initCallbacks() {
+            for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+                onCallback(tag, factory);
+            }
+        }
+
+        @Override
+        public void onClear() {
+        }
+
+        @Override
+        public void printResult() {
+        }
+    }
+
+    private void enableJavaAnalysis(AnalysisFactory<BaseEventHandlerNode> factory) {
+        NodeProfInstrument instrument = createContext();
+        NodeProfAnalysis analysis = new AllTagsAnalysis(instrument.getInstrumenter(), instrument.getEnv(), factory);
+        analysis.initCallbacks();
+        analysis.analysisReady();
+    }
+
+    private static AnalysisFactory<BaseEventHandlerNode> emptyHandlers() {
+        return new AnalysisFactory<BaseEventHandlerNode>() {
+            @Override
+            public BaseEventHandlerNode create(EventContext context) {
+                return new BaseEventHandlerNode(context) {
+                    @Override
+                    public int expectedNumInputs() {
+                        return -1;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Without a handler for a node, NodeProf instruments it with an empty ExecutionEventNode.
+     */
+    @Test
+    public void testEmptyExecutionEventNodes() {
+        GraphRecorder baseline = compileWithoutAnalysis();
+        enableJavaAnalysis(new AnalysisFactory<BaseEventHandlerNode>() {
+            @Override
+            public BaseEventHandlerNode create(EventContext context) {
+                return null;
+            }
+        });
+        assertNoOverhead(baseline, compileTarget());
+    }
+
+    @Test
+    public void testDisabledProfiler() {
+        GraphRecorder baseline = compileWithoutAnalysis();
+        enableJavaAnalysis(emptyHandlers());
+        ProfilerExecutionEventNode.updateEnabled(false);
+        assertNoOverhead(baseline, compileTarget());
+    }
+
+    @Test
+    public void testEmptyHandlers() {
+        GraphRecorder baseline = compileWithoutAnalysis();
+        enableJavaAnalysis(emptyHandlers());
+        assertNoOverhead(baseline, compileTarget());
+    }
+
+    private void enableJalangiAnalysis(String callbacks, boolean enabled) throws Exception {
+        NodeProfInstrument instrument = createContext();
+        NodeProfJalangi jalangi = new NodeProfJalangi(instrument);
+        context.enter();
+        try {
+            jalangi.onLoad();
+        } finally {
+            context.leave();
+        }
+        context.eval(JavaScriptLanguage.ID, "// DO NOT INSTRUMENT\n" +
+                        "var analysis = " + callbacks + ";\n" +
+                        "for (var key in analysis) {\n" +
+                        "  __jalangiAdapter.registerCallback(analysis, key, analysis[key]);\n" +
+                        "}\n" +
+                        "__jalangiAdapter.onReady(analysis);\n" +
+                        (enabled ? "" : "__jalangiAdapter.instrumentationSwitch(false, analysis);"));
+    }
+
+    /**
+     * The binary handlers have no pre callback and skip the post callback for the logical
+     * operations, which are the only binary operations of LOGICAL_TARGET_SOURCE.
+     */
+    @Test
+    public void testJalangiHandlersWithoutCallbacks() throws Exception {
+        createContext();
+        GraphRecorder baseline = compileTarget(LOGICAL_TARGET_SOURCE);
+        enableJalangiAnalysis("{binary: function() {}}", true);
+        assertNoOverhead(baseline, compileTarget(LOGICAL_TARGET_SOURCE));
+    }
+
+    @Test
+    public void testDisabledJalangiAnalysis() throws Exception {
+        GraphRecorder baseline = compileWithoutAnalysis();
+        enableJalangiAnalysis("{functionEnter: function() {}, binary: function() {}, read: function() {}, write: function() {}, literal: function() {}}", false);
+        assertNoOverhead(baseline, compileTarget());
+    }
+}
@@ -0,0 +1,102 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.api.source.SourceSection;
+
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+
+public class SourceMappingTest {
+
+    @After
+    public void reset() {
+        GlobalConfiguration.STABLE_IIDS = false;
+        SourceMapping.reset();
+    }
+
+    @Test
+    public void testIIDs() {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            code.append("var x").append(i).append(" = ").append(i).append(";\n");
+        }
+        Source a = Source.newBuilder("js", code.toString(), "a.js").build();
+        Source b = Source.newBuilder("js", code.toString(), "b.js").build();
+
+        // enough sections to grow all tables
+        HashMap<SourceSection, Integer> iids = new HashMap<>();
+        for (Source source : new Source[]{a, b}) {
+            for (int i = 0; i < 2000; i++) {
+                SourceSection section = source.createSection(i, 1 + i % 7);
+                int iid = SourceMapping.getIIDForSourceSection(section);
+                assertEquals(section, SourceMapping.getSourceSectionForIID(iid));
+                iids.put(section, iid);
+            }
+        }
+        assertEquals(4000, iids.size());
+        assertEquals(4000, iids.values().stream().distinct().count());
+
+        // equal sections get the same IID
+        for (int i = 0; i < 2000; i += 13) {
+            SourceSection section = b.createSection(i, 1 + i % 7);
+            assertEquals(iids.get(section).intValue(), SourceMapping.getIIDForSourceSection(section));
+        }
+        int iid = SourceMapping.getIIDForSourceSection(a.createSection(2, 3));
+        assertEquals("r x", SourceMapping.getCodeForIID(iid));
+        // sources without a path are considered internal (*)
+        assertEquals("(*a.js:1:3:1:6)", SourceMapping.getLocationForIID(iid));
+        assertNotEquals(iid, SourceMapping.getIIDForSourceSection(a.createSection(2, 4)));
+        assertNotEquals(iid, SourceMapping.getIIDForSourceSection(b.createSection(2, 3)));
+
+        assertNull(SourceMapping.getLocationForIID(0));
+        assertNull(SourceMapping.getSourceSectionForIID(100000));
+    }
+
+    @Test
+    public void testStableIIDs() {
+        GlobalConfiguration.STABLE_IIDS = true;
+        SourceMapping.reset();
+        Source a = Source.newBuilder("js", "function foo() { return 42; }\nfoo();", "a.js").build();
+        int n = a.getLength();
+
+        int[] iids = new int[n];
+        for (int i = 0; i < n; i++) {
+            iids[i] = SourceMapping.getIIDForSourceSection(a.createSection(i, n - i));
+        }
+        // a new run instrumenting the sections in a different order
+        SourceMapping.reset();
+        Source copy = Source.newBuilder("js", a.getCharacters(), "a.js").build();
+        for (int i = n - 1; i >= 0; i--) {
+            SourceSection section = copy.createSection(i, n - i);
+            assertEquals(iids[i], SourceMapping.getIIDForSourceSection(section));
+            assertEquals(section, SourceMapping.getSourceSectionForIID(iids[i]));
+            assertEquals(n - i, SourceMapping.getIndexForIID(iids[i]));
+        }
+        assertEquals(n, SourceMapping.getIndexCount());
+    }
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// DO NOT INSTRUMENT
+(function (sandbox) {
+  function Counter(name) {
+    this.enter = 0;
+    this.binaryOps = 0;
+    this.functionEnter = () => this.enter++;
+    this.binary = () => this.binaryOps++;
+    this.endExecution = () => console.log(name, 'functionEnter:', this.enter, 'binary:', this.binaryOps);
+  }
+  sandbox.addAnalysis(new Counter('all'));
+
+  // stops its functionEnter events after 10 events
+  const limited = new Counter('limited');
+  limited.functionEnter = function () {
+    if (++limited.enter === 10) {
+      sandbox.disableAnalysis(limited, 'functionEnter');
+    }
+  };
+  sandbox.addAnalysis(limited);
+
+  // binary events disabled by tag
+  const noBinary = new Counter('no binary');
+  sandbox.addAnalysis(noBinary);
+  sandbox.disableAnalysis(noBinary, ['BINARY']);
+})(J$);
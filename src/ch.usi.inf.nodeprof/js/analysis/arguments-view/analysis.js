@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// DO NOT INSTRUMENT
+(function (sandbox) {
+  const logged = new Set();
+  function logOnce(name, ...msg) {
+    if (!logged.has(name)) {
+      logged.add(name);
+      console.log(name, ...msg);
+    }
+  }
+
+  function describe(args) {
+    const copy = [];
+    for (let i = 0; i < args.length; i++) {
+      copy.push(args[i]);
+    }
+    return 'length: ' + args.length + ', elements: ' + JSON.stringify(copy) + ', array: ' + Array.isArray(args);
+  }
+
+  sandbox.addAnalysis({
+    functionEnter: function (iid, f, dis, args) {
+      if (f.name === 'fib' && args[0] === 3) {
+        logOnce('functionEnter', describe(args));
+      }
+    },
+    invokeFunPre: function (iid, f, base, args) {
+      if (f.name === 'fib' && args[0] === 3) {
+        logOnce('invokeFunPre', describe(args));
+      }
+    },
+    invokeFun: function (iid, f, base, args, result) {
+      if (f.name === 'fib' && args[0] === 3) {
+        logOnce('invokeFun', describe(args), 'result:', result);
+      }
+    }
+  });
+})(J$);
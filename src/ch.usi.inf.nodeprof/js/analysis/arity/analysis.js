@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// DO NOT INSTRUMENT
+(function (sandbox) {
+  const seen = {};
+  function observe(name, args) {
+    seen[name] = seen[name] || new Set();
+    seen[name].add(Array.isArray(args) ? 'args: array' : 'args: ' + typeof args);
+  }
+
+  // with --nodeprof.CallbackArity, dis and args are not computed for this callback
+  sandbox.addAnalysis({
+    functionEnter: function (iid, f) {
+      observe('short (' + arguments.length + ' arguments)', arguments[3]);
+    },
+    invokeFunPre: function (iid, f, base) {
+      observe('short invokeFunPre', arguments[3]);
+    }
+  });
+  // all parameters declared
+  sandbox.addAnalysis({
+    functionEnter: function (iid, f, dis, args) {
+      observe('full', args);
+    }
+  });
+  // explicit declaration
+  const analysis = {
+    functionEnter: function (iid) {
+      observe('declared', arguments[3]);
+    },
+    endExecution: function () {
+      for (const name of Object.keys(seen).sort()) {
+        console.log(name, [...seen[name]]);
+      }
+    }
+  };
+  analysis.functionEnter.nodeprofArity = 4;
+  sandbox.addAnalysis(analysis);
+})(J$);
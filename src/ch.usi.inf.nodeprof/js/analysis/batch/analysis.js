@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// DO NOT INSTRUMENT
+(function (sandbox) {
+  function count(map, key) {
+    map[key] = (map[key] || 0) + 1;
+  }
+
+  // events delivered one by one
+  function Direct() {
+    this.counts = {};
+    this.functionEnter = (iid, f, dis, args) => count(this.counts, 'functionEnter');
+    this.binary = (iid, op, left, right, result) => count(this.counts, 'binary ' + op);
+  }
+
+  // the same events delivered in batches of 16 records [iid, callback, op]
+  function Batched() {
+    this.counts = {};
+    this.batches = 0;
+    this.functionEnter = function () {};
+    this.binary = function () {};
+    this.onBatch = function (events) {
+      this.batches++;
+      for (let i = 0; i < events.length; i += 3) {
+        if (typeof events[i] !== 'number') {
+          console.log('unexpected iid', events[i]);
+        }
+        count(this.counts, events[i + 1] === 'binary' ? 'binary ' + events[i + 2] : events[i + 1]);
+      }
+    };
+  }
+
+  const batched = new Batched();
+  const direct = new Direct();
+  sandbox.addAnalysis(batched, {batch: 16});
+  sandbox.addAnalysis(direct);
+
+  direct.endExecution = function () {
+    const keys = Object.keys(direct.counts).sort();
+    console.log('callbacks', keys);
+    for (const key of keys) {
+      console.log(key, 'equal:', direct.counts[key] === batched.counts[key]);
+    }
+    console.log('same callbacks:', keys.join() === Object.keys(batched.counts).sort().join());
+    console.log('multiple batches:', batched.batches > 1);
+  };
+})(J$);
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// DO NOT INSTRUMENT
+(function (sandbox) {
+  let fibEnters = 0;
+  sandbox.addAnalysis({
+    functionEnter: function (iid, f) {
+      if (f.name === 'fib') {
+        fibEnters++;
+      }
+    },
+    endExecution: function () {
+      // fib is entered 177 times, the governor removes its instrumentation after 50 events
+      console.log('fib functionEnter stopped:', fibEnters > 0 && fibEnters < 177);
+      console.log('deactivated by governor:', sandbox.getInstrumentationStats().deactivatedByGovernor);
+    }
+  });
+})(J$);
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// DO NOT INSTRUMENT
+(function (sandbox) {
+  // executions of function bodies counted by a callback
+  const calls = {};
+  sandbox.addAnalysis({
+    functionEnter: function (iid) {
+      calls[iid] = (calls[iid] || 0) + 1;
+    },
+    endExecution: function () {
+      // ... and by the built-in counters of --nodeprof.HitCounts=ROOT
+      const hits = sandbox.getHitCounts();
+      console.log('typed array:', hits instanceof Float64Array);
+      const iids = Object.keys(calls);
+      console.log('counted functions:', iids.length);
+      console.log('same counts:', iids.every(iid => hits[iid] === calls[iid]));
+      console.log('max count:', Math.max(...hits));
+    }
+  });
+})(J$);
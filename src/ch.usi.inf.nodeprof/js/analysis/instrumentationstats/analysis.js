@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// DO NOT INSTRUMENT
+(function (sandbox) {
+  let enters = 0;
+  sandbox.addAnalysis({
+    functionEnter: function (iid) {
+      enters++;
+    },
+    endExecution: function () {
+      const stats = sandbox.getInstrumentationStats();
+      console.log('function enters:', enters > 0);
+      console.log('root nodes:', stats.nodesPerTag.ROOT > 0);
+      console.log('total nodes:', stats.nodes >= stats.nodesPerTag.ROOT);
+      console.log('nodes in fib.js:', Object.keys(stats.nodesPerSource).some(s => s.endsWith('fib.js')));
+      console.log('jalangi handlers:', Object.keys(stats.handlersPerAnalysis).some(a => a.startsWith('jalangi#')));
+      console.log('included sources:', stats.sources.included > 0);
+      console.log('iids:', stats.iids > 0);
+      console.log('deactivated:', stats.deactivated);
+    }
+  });
+})(J$);
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// DO NOT INSTRUMENT
+(function (sandbox) {
+  // deactivates fib on every enter and reactivates it on every return, i.e., keeps changing the
+  // handler of fib until --nodeprof.MaxHandlerUpdates is reached
+  let fibIid;
+  let toggledEnters = 0;
+  sandbox.addAnalysis({
+    functionEnter: function (iid, f) {
+      if (f.name === 'fib') {
+        fibIid = iid;
+        toggledEnters++;
+        return {deactivate: true};
+      }
+    },
+    _return: function () {
+      sandbox.reactivate(fibIid);
+    }
+  });
+
+  // shares the instrumentation of fib and keeps receiving its events
+  let enters = 0;
+  sandbox.addAnalysis({
+    functionEnter: function (iid, f) {
+      if (f.name === 'fib') {
+        enters++;
+      }
+    },
+    endExecution: function () {
+      console.log('toggling analysis limited:', toggledEnters > 0 && toggledEnters < 177);
+      console.log('other analysis functionEnter:', enters);
+    }
+  });
+})(J$);
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// DO NOT INSTRUMENT
+(function (sandbox) {
+  function MyAnalysis() {
+    let fibIid;
+    let enters = 0;
+    let returns = 0;
+    let reactivations = 0;
+    this.functionEnter = function (iid, f) {
+      if (f.name === 'fib') {
+        fibIid = iid;
+        enters++;
+        return {deactivate: true};
+      }
+    };
+    this._return = function (iid, val) {
+      // fib returns 177 times, reactivate it every 10 returns
+      if (++returns % 10 === 0 && sandbox.reactivate(fibIid)) {
+        reactivations++;
+      }
+    };
+    this.endExecution = function () {
+      console.log('functionEnter:', enters, 'returns:', returns, 'reactivations:', reactivations);
+    };
+  }
+  sandbox.analysis = new MyAnalysis();
+})(J$);
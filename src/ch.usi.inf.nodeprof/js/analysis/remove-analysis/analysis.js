@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// DO NOT INSTRUMENT
+(function (sandbox) {
+  // removes itself after 10 functionEnter events
+  const enterCounter = {
+    enter: 0,
+    functionEnter: function () {
+      if (++enterCounter.enter === 10) {
+        console.log('removed:', sandbox.removeAnalysis(enterCounter));
+      }
+    },
+    endExecution: () => console.log('functionEnter:', enterCounter.enter)
+  };
+  sandbox.addAnalysis(enterCounter);
+
+  // attaches the first analysis again after 100 functionEnter events
+  let enters = 0;
+  sandbox.addAnalysis({
+    functionEnter: function () {
+      if (++enters === 100) {
+        sandbox.addAnalysis(enterCounter);
+        console.log('attached again');
+      }
+    }
+  });
+})(J$);
@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// DO NOT INSTRUMENT
+(function (sandbox) {
+  function Counter(name) {
+    this.enter = 0;
+    this.exit = 0;
+    this.functionEnter = () => this.enter++;
+    this.functionExit = () => this.exit++;
+    this.endExecution = () => console.log(name, 'functionEnter:', this.enter, 'functionExit:', this.exit);
+  }
+  sandbox.addAnalysis(new Counter('all'));
+  // fib is executed 177 times (down 201 times, deeper than 64), the module function once
+  sandbox.addAnalysis(new Counter('1 in 10'), {sampleRate: 10});
+  sandbox.addAnalysis(new Counter('3 in 10'), {sampleRate: 10, sampleBurst: 3});
+})(J$);
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+// DO NOT INSTRUMENT
+(function (sandbox) {
+  // with --nodeprof.StartAfter=fib, only the calls after the first call of fib are instrumented
+  let enters = 0;
+  sandbox.addAnalysis({
+    functionEnter: function (iid, f) {
+      enters++;
+    },
+    endExecution: function () {
+      console.log('instrumented calls:', enters > 0);
+      console.log('first call skipped:', enters < 177);
+      console.log('attachNow after start:', sandbox.attachNow());
+    }
+  });
+})(J$);
@@ -58,11 +58,52 @@ J$={};
     sandbox.getGlobalIID = function(iid) {
       return iid;
     };
-    sandbox.enableAnalysis = function() {
-      return sandbox.adapter.instrumentationSwitch(true);
+    /*
+     * J$.enableAnalysis() / J$.disableAnalysis()
+     * - switch all events of all analyses
+     * J$.enableAnalysis(analysis[, callbacks]) / J$.disableAnalysis(analysis[, callbacks])
+     * - switch the events of one analysis, optionally only for the given callback or tag names
+     *   (e.g. 'invokeFunPre', ['STATEMENT', 'ROOT'])
+     */
+    sandbox.enableAnalysis = function(analysis, callbacks) {
+      return sandbox.adapter.instrumentationSwitch(true, analysis, callbacks);
+    }
+    sandbox.disableAnalysis = function(analysis, callbacks) {
+      return sandbox.adapter.instrumentationSwitch(false, analysis, callbacks);
+    }
+    /*
+     * J$.getHitCounts()
+     * - snapshot of the execution counters of --nodeprof.HitCounts as a Float64Array indexed by iid
+     */
+    sandbox.getHitCounts = function() {
+      return new Float64Array(sandbox.adapter.getHitCounts());
+    }
+    /*
+     * J$.reactivate(iid) / J$.reactivateAll()
+     * - restore the callbacks deactivated with {deactivate: true} (or by the overhead governor)
+     *   for one site / all sites
+     */
+    sandbox.reactivate = function(iid) {
+      return sandbox.adapter.reactivate(iid);
     }
-    sandbox.disableAnalysis = function() {
-      return sandbox.adapter.instrumentationSwitch(false);
+    sandbox.reactivateAll = function() {
+      return sandbox.adapter.reactivateAll();
+    }
+    /*
+     * J$.getInstrumentationStats()
+     * - instrumented nodes per tag, source and analysis, included/excluded sources, number of
+     *   iids and deactivations so far
+     */
+    sandbox.getInstrumentationStats = function() {
+      return sandbox.adapter.getInstrumentationStats();
+    }
+    /*
+     * J$.attachNow()
+     * - attach the instrumentation delayed with --nodeprof.StartAfter, returns false if it is
+     *   already attached
+     */
+    sandbox.attachNow = function() {
+      return sandbox.adapter.attachNow();
     }
   }catch (e){
     console.log("cannot load nodeprof jalangi adapter");
@@ -82,6 +123,11 @@ J$={};
   sandbox.addAnalysis = function(analysis, filterConfig){
     if(!analysis)
       return;
+    if(sandbox.analyses.indexOf(analysis) < 0 && sandbox.adapter.reattachAnalysis(analysis)) {
+      // analysis removed with J$.removeAnalysis, attached again with its original config
+      sandbox.analyses.push(analysis);
+      return;
+    }
     sandbox.analyses.push(analysis);
     for(key in analysis){
       if(typeof analysis[key] == 'function' && ( (J$.enabledCBs.length == 0) || (J$.enabledCBs.indexOf(key)>-1))){
@@ -94,9 +140,22 @@ J$={};
       sandbox.adapter.onReady(analysis, filterConfig);
     }
   }
+  /*
+   * J$.removeAnalysis(analysis)
+   * - remove all instrumentation of the analysis, J$.addAnalysis(analysis) attaches it again
+   */
+  sandbox.removeAnalysis = function(analysis){
+    const index = sandbox.analyses.indexOf(analysis);
+    if(index < 0)
+      return false;
+    sandbox.analyses.splice(index, 1);
+    return sandbox.adapter.detachAnalysis(analysis);
+  }
   sandbox.endExecution = function(){
     for(var i = 0; i < sandbox.analyses.length; i++){
       var analysis = sandbox.analyses[i];
+      // deliver events still buffered for analyses in batch mode
+      sandbox.adapter.flushBatch(analysis);
       if(analysis.endExecution && (typeof analysis.endExecution == 'function')){
         analysis.endExecution();
       }
@@ -61,6 +61,82 @@ public class NodeProfCLI {
     @Option(name = "SymbolicLocations", help = symLocHelp, category = OptionCategory.USER)//
     public static final OptionKey<Boolean> SYMBOLIC_LOCATIONS = new OptionKey<>(false);
 
+    static final String traceFileHelp = "Write the low-level instrumentation trace in binary format to the given file (decode with 'mx trace-decode').";
+    @Option(name = "TraceFile", help = traceFileHelp, category = OptionCategory.USER)//
+    public static final OptionKey<String> TRACE_FILE = new OptionKey<>("");
+
+    static final String statsHelp = "Count instrumented nodes and events per tag and print the counters at exit.";
+    @Option(name = "Stats", help = statsHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Boolean> STATS = new OptionKey<>(false);
+
+    static final String hitCountsHelp = "Count executions per IID for nodes with the given tags (separated by ',', e.g., 'ROOT,STATEMENT') without any analysis callback.";
+    @Option(name = "HitCounts", help = hitCountsHelp, category = OptionCategory.USER)//
+    public static final OptionKey<String> HIT_COUNTS = new OptionKey<>("");
+
+    static final String hitCountsFileHelp = "Write the execution counters of --nodeprof.HitCounts to the given file at exit.";
+    @Option(name = "HitCountsFile", help = hitCountsFileHelp, category = OptionCategory.USER)//
+    public static final OptionKey<String> HIT_COUNTS_FILE = new OptionKey<>("");
+
+    static final String stableIIDsHelp = "Use IIDs derived from the source name and the source range, which are the same in every run.";
+    @Option(name = "StableIIDs", help = stableIIDsHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Boolean> STABLE_IIDS = new OptionKey<>(false);
+
+    static final String iidIndexFileHelp = "Write the source name and range of every IID to the given file at exit.";
+    @Option(name = "IIDIndexFile", help = iidIndexFileHelp, category = OptionCategory.USER)//
+    public static final OptionKey<String> IID_INDEX_FILE = new OptionKey<>("");
+
+    static final String callbackArityHelp = "Use the length of Jalangi callbacks to skip computing arguments they do not declare (e.g., the arguments array of functionEnter).";
+    @Option(name = "CallbackArity", help = callbackArityHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Boolean> CALLBACK_ARITY = new OptionKey<>(false);
+
+    static final String argumentsViewHelp = "Pass the arguments of calls to Jalangi callbacks as read-only array-like views instead of copying them into JS arrays.";
+    @Option(name = "ArgumentsView", help = argumentsViewHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Boolean> ARGUMENTS_VIEW = new OptionKey<>(false);
+
+    static final String sampleRateHelp = "Run the analysis callbacks of each instrumented node for only 1 in N executions (1: no sampling).";
+    @Option(name = "SampleRate", help = sampleRateHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Integer> SAMPLE_RATE = new OptionKey<>(1);
+
+    static final String sampleBurstHelp = "Number of consecutive executions sampled every --nodeprof.SampleRate executions.";
+    @Option(name = "SampleBurst", help = sampleBurstHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Integer> SAMPLE_BURST = new OptionKey<>(1);
+
+    static final String maxEventsHelp = "Remove the instrumentation of locations producing more events per second (0: no limit).";
+    @Option(name = "MaxEventsPerSecond", help = maxEventsHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Integer> MAX_EVENTS_PER_SECOND = new OptionKey<>(0);
+
+    static final String maxTimeShareHelp = "Remove the instrumentation of locations whose callbacks take more than the given percentage of the execution time (0: no limit).";
+    @Option(name = "MaxCallbackTimeShare", help = maxTimeShareHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Double> MAX_CALLBACK_TIME_SHARE = new OptionKey<>(0.0);
+
+    static final String maxHandlerUpdatesHelp = "Number of handler updates (deactivations, reactivations and replacements) after which an instrumented location keeps its handler to avoid repeated deoptimizations (0: no limit).";
+    @Option(name = "MaxHandlerUpdates", help = maxHandlerUpdatesHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Integer> MAX_HANDLER_UPDATES = new OptionKey<>(100);
+
+    static final String callbackTimingHelp = "Measure the time spent in Jalangi callbacks (sampled), per callback and per location.";
+    @Option(name = "CallbackTiming", help = callbackTimingHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Boolean> CALLBACK_TIMING = new OptionKey<>(false);
+
+    static final String callbackTimingFileHelp = "Write the callback times of --nodeprof.CallbackTiming to the given file at exit (CSV if the name ends with .csv, JSON otherwise).";
+    @Option(name = "CallbackTimingFile", help = callbackTimingFileHelp, category = OptionCategory.USER)//
+    public static final OptionKey<String> CALLBACK_TIMING_FILE = new OptionKey<>("");
+
+    static final String metricsHelp = "Register a JMX MBean (ch.usi.inf.nodeprof:type=Metrics) with live NodeProf metrics.";
+    @Option(name = "Metrics", help = metricsHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Boolean> METRICS = new OptionKey<>(false);
+
+    static final String metricsFileHelp = "Append a snapshot of the NodeProf metrics (one JSON object per line) to the given file every --nodeprof.MetricsInterval milliseconds.";
+    @Option(name = "MetricsFile", help = metricsFileHelp, category = OptionCategory.USER)//
+    public static final OptionKey<String> METRICS_FILE = new OptionKey<>("");
+
+    static final String metricsIntervalHelp = "Interval in milliseconds between two metrics samples.";
+    @Option(name = "MetricsInterval", help = metricsIntervalHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Integer> METRICS_INTERVAL = new OptionKey<>(1000);
+
+    static final String startAfterHelp = "Attach the instrumentation only after the given time (e.g., 30s or 500ms) or at the first call of the function with the given name. J$.attachNow() attaches it earlier.";
+    @Option(name = "StartAfter", help = startAfterHelp, category = OptionCategory.USER)//
+    public static final OptionKey<String> START_AFTER = new OptionKey<>("");
+
     public static OptionDescriptor[] ods = {
                     OptionDescriptor.newBuilder(ENABLED, "nodeprof").deprecated(false).help(enabledHelp).category(OptionCategory.USER).build(),
                     OptionDescriptor.newBuilder(DEBUG, "nodeprof.Debug").deprecated(false).help(debugHelp).category(OptionCategory.USER).build(),
@@ -71,5 +147,24 @@ public class NodeProfCLI {
                     OptionDescriptor.newBuilder(IGNORE_JALANGI_EXCEPTION, "nodeprof.IgnoreJalangiException").deprecated(false).help(ignoreJExpHelp).category(OptionCategory.USER).build(),
                     OptionDescriptor.newBuilder(LOG_ABSOLUTE_PATH, "nodeprof.LogAbsolutePath").deprecated(false).help(logAbsPathHelp).category(OptionCategory.USER).build(),
                     OptionDescriptor.newBuilder(SYMBOLIC_LOCATIONS, "nodeprof.SymbolicLocations").deprecated(false).help(symLocHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(TRACE_FILE, "nodeprof.TraceFile").deprecated(false).help(traceFileHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(STATS, "nodeprof.Stats").deprecated(false).help(statsHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(HIT_COUNTS, "nodeprof.HitCounts").deprecated(false).help(hitCountsHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(HIT_COUNTS_FILE, "nodeprof.HitCountsFile").deprecated(false).help(hitCountsFileHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(STABLE_IIDS, "nodeprof.StableIIDs").deprecated(false).help(stableIIDsHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(IID_INDEX_FILE, "nodeprof.IIDIndexFile").deprecated(false).help(iidIndexFileHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(CALLBACK_ARITY, "nodeprof.CallbackArity").deprecated(false).help(callbackArityHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(ARGUMENTS_VIEW, "nodeprof.ArgumentsView").deprecated(false).help(argumentsViewHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(SAMPLE_RATE, "nodeprof.SampleRate").deprecated(false).help(sampleRateHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(SAMPLE_BURST, "nodeprof.SampleBurst").deprecated(false).help(sampleBurstHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(MAX_EVENTS_PER_SECOND, "nodeprof.MaxEventsPerSecond").deprecated(false).help(maxEventsHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(MAX_CALLBACK_TIME_SHARE, "nodeprof.MaxCallbackTimeShare").deprecated(false).help(maxTimeShareHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(MAX_HANDLER_UPDATES, "nodeprof.MaxHandlerUpdates").deprecated(false).help(maxHandlerUpdatesHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(CALLBACK_TIMING, "nodeprof.CallbackTiming").deprecated(false).help(callbackTimingHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(CALLBACK_TIMING_FILE, "nodeprof.CallbackTimingFile").deprecated(false).help(callbackTimingFileHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(METRICS, "nodeprof.Metrics").deprecated(false).help(metricsHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(METRICS_FILE, "nodeprof.MetricsFile").deprecated(false).help(metricsFileHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(METRICS_INTERVAL, "nodeprof.MetricsInterval").deprecated(false).help(metricsIntervalHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(START_AFTER, "nodeprof.StartAfter").deprecated(false).help(startAfterHelp).category(OptionCategory.USER).build(),
     };
 }
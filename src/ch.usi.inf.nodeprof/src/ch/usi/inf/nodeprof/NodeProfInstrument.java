@@ -16,19 +16,31 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof;
 
+import java.util.Map;
+
 import org.graalvm.options.OptionDescriptors;
 
 import com.oracle.truffle.api.TruffleContext;
+import com.oracle.truffle.api.instrumentation.ContextThreadLocal;
 import com.oracle.truffle.api.instrumentation.ContextsListener;
 import com.oracle.truffle.api.instrumentation.Instrumenter;
 import com.oracle.truffle.api.instrumentation.TruffleInstrument;
 import com.oracle.truffle.api.instrumentation.TruffleInstrument.Registration;
 import com.oracle.truffle.api.nodes.LanguageInfo;
 
+import ch.usi.inf.nodeprof.analysis.DelayedStart;
+import ch.usi.inf.nodeprof.analysis.DeoptimizationTracker;
+import ch.usi.inf.nodeprof.analysis.InstrumentationStatistics;
 import ch.usi.inf.nodeprof.analysis.NodeProfAnalysis;
+import ch.usi.inf.nodeprof.analysis.OverheadGovernor;
+import ch.usi.inf.nodeprof.jalangi.CallbackTiming;
+import ch.usi.inf.nodeprof.utils.CallbackGuard;
 import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
+import ch.usi.inf.nodeprof.utils.HitCountSupport;
 import ch.usi.inf.nodeprof.utils.Logger;
+import ch.usi.inf.nodeprof.utils.MetricsSupport;
 import ch.usi.inf.nodeprof.utils.RawEventsTracingSupport;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
 
 /**
  * TruffleInstrument for the profiler
@@ -49,8 +61,22 @@ public class NodeProfInstrument extends TruffleInstrument implements ContextsLis
 
     private boolean loaded = false;
 
+    /**
+     * the callback guards of the contexts and threads of this engine, see getCallbackGuard
+     */
+    private final ContextThreadLocal<CallbackGuard> callbackGuard;
+
     public NodeProfInstrument() {
         super();
+        // context thread locals can only be created in the constructor
+        callbackGuard = createContextThreadLocal((context, thread) -> new CallbackGuard());
+    }
+
+    /**
+     * @return the reentrancy guard for analysis callbacks of the current context and thread
+     */
+    public CallbackGuard getCallbackGuard() {
+        return callbackGuard.get();
     }
 
     @Override
@@ -65,6 +91,8 @@ public class NodeProfInstrument extends TruffleInstrument implements ContextsLis
         Logger.debug("NodeProf has been enabled");
         instrumenter = env.getInstrumenter();
         env.registerService(this);
+        MetricsSupport.enable();
+        DelayedStart.setup(instrumenter);
         /**
          * enable analyses based on
          */
@@ -78,12 +106,37 @@ public class NodeProfInstrument extends TruffleInstrument implements ContextsLis
          * Dump execution counters for every tag
          */
         ProfiledTagEnum.dump();
+        HitCountSupport.dump();
+        OverheadGovernor.dump();
+        DeoptimizationTracker.dump();
+        CallbackTiming.dump();
+        MetricsSupport.dispose();
+        if (!GlobalConfiguration.IID_INDEX_FILE.isEmpty()) {
+            SourceMapping.writeIndex(GlobalConfiguration.IID_INDEX_FILE);
+        }
+        RawEventsTracingSupport.dispose();
     }
 
     public Instrumenter getInstrumenter() {
         return instrumenter;
     }
 
+    /**
+     * attach the instrumentation delayed with --nodeprof.StartAfter now
+     *
+     * @return false if the instrumentation was already attached
+     */
+    public boolean attachNow() {
+        return DelayedStart.start("on request");
+    }
+
+    /**
+     * @return the statistics of the instrumentation created so far, see InstrumentationStatistics
+     */
+    public Map<String, Object> getInstrumentationStatistics() {
+        return InstrumentationStatistics.getStatistics();
+    }
+
     /**
      * reset the state of all the analysis
      */
@@ -117,8 +170,11 @@ public class NodeProfInstrument extends TruffleInstrument implements ContextsLis
          * different than the first one while in jvm the second context is the same as the first
          * one. we enable NodeProf after the second one is initilized
          */
-        if (GlobalConfiguration.DEBUG_TRACING) {
-            RawEventsTracingSupport.enable(instrumenter);
+        if (GlobalConfiguration.DEBUG_TRACING || !GlobalConfiguration.TRACE_FILE.isEmpty()) {
+            DelayedStart.runWhenStarted(() -> RawEventsTracingSupport.enable(instrumenter));
+        }
+        if (!GlobalConfiguration.HIT_COUNTS.isEmpty()) {
+            DelayedStart.runWhenStarted(() -> HitCountSupport.enable(instrumenter));
         }
         if (readyToLoad && !loaded) {
             if (GlobalConfiguration.ANALYSIS != null) {
@@ -127,7 +183,7 @@ public class NodeProfInstrument extends TruffleInstrument implements ContextsLis
                     if (GlobalConfiguration.DEBUG) {
                         Logger.debug("loading " + name + " for analysis");
                     }
-                    NodeProfAnalysis.enableAnalysis(this.instrumenter, instrumentEnv, name);
+                    NodeProfAnalysis.enableAnalysis(this, name);
                 }
             }
             loaded = true;
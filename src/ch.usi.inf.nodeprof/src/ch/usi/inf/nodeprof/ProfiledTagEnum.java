@@ -16,6 +16,9 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof;
 
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.instrumentation.StandardTags;
 import com.oracle.truffle.api.instrumentation.Tag;
 import com.oracle.truffle.js.nodes.instrumentation.JSTags;
@@ -64,11 +67,16 @@ public enum ProfiledTagEnum {
      */
     public int usedAnalysis = 0;
     public long nodeCount = 0;
-    public long preHitCount = 0;
-    public long postHitCount = 0;
-    public long exceptionHitCount = 0;
     public long deactivatedCount = 0;
 
+    /**
+     * event counters, only updated with --nodeprof.Stats. They are striped to avoid contention
+     * between threads executing instrumented code.
+     */
+    private final LongAdder preHitCount = new LongAdder();
+    private final LongAdder postHitCount = new LongAdder();
+    private final LongAdder exceptionHitCount = new LongAdder();
+
     ProfiledTagEnum(Class<? extends Tag> clazz, int expectedNumInputs) {
         this.clazz = clazz;
         this.expectedNumInputs = expectedNumInputs;
@@ -81,28 +89,89 @@ public enum ProfiledTagEnum {
         return this.clazz;
     }
 
+    @TruffleBoundary
+    public void countPre() {
+        preHitCount.increment();
+    }
+
+    @TruffleBoundary
+    public void countPost() {
+        postHitCount.increment();
+    }
+
+    @TruffleBoundary
+    public void countException() {
+        exceptionHitCount.increment();
+    }
+
+    /**
+     * @return the number of pre events, always 0 without --nodeprof.Stats
+     */
+    public long getPreHitCount() {
+        return preHitCount.sum();
+    }
+
+    /**
+     * @return the number of post events, always 0 without --nodeprof.Stats
+     */
+    public long getPostHitCount() {
+        return postHitCount.sum();
+    }
+
+    /**
+     * @return the number of exceptional post events, always 0 without --nodeprof.Stats
+     */
+    public long getExceptionHitCount() {
+        return exceptionHitCount.sum();
+    }
+
+    /**
+     * Resets all counters of every tag.
+     */
+    public static void resetCounters() {
+        for (ProfiledTagEnum cb : ProfiledTagEnum.values()) {
+            cb.usedAnalysis = 0;
+            cb.nodeCount = 0;
+            cb.deactivatedCount = 0;
+            cb.preHitCount.reset();
+            cb.postHitCount.reset();
+            cb.exceptionHitCount.reset();
+        }
+    }
+
     public static void dump() {
-        if (GlobalConfiguration.DEBUG) {
+        if (GlobalConfiguration.DEBUG || GlobalConfiguration.STATS) {
             for (ProfiledTagEnum cb : ProfiledTagEnum.values()) {
                 if (cb.usedAnalysis > 0) {
-                    Logger.debug("Callback registered times: " + cb.toString() + " " + cb.usedAnalysis);
+                    log("Callback registered times: " + cb.toString() + " " + cb.usedAnalysis);
                     if (cb.nodeCount > 0) {
-                        Logger.debug("InstrumentedNodes: " + cb.toString() + " " + cb.nodeCount);
+                        log("InstrumentedNodes: " + cb.toString() + " " + cb.nodeCount);
+                    }
+                    if (cb.getPreHitCount() > 0) {
+                        log("CounterPre: " + cb.toString() + " " + cb.getPreHitCount());
                     }
-                    if (cb.preHitCount > 0) {
-                        Logger.debug("CounterPre: " + cb.toString() + " " + cb.preHitCount);
+                    if (cb.getPostHitCount() > 0) {
+                        log("CounterPost: " + cb.toString() + " " + cb.getPostHitCount());
                     }
-                    if (cb.postHitCount > 0) {
-                        Logger.debug("CounterPost: " + cb.toString() + " " + cb.postHitCount);
+                    if (cb.getExceptionHitCount() > 0) {
+                        log("CounterExceptional: " + cb.toString() + " " + cb.getExceptionHitCount());
                     }
                     if (cb.deactivatedCount > 0) {
-                        Logger.debug("Deactivated: " + cb.toString() + " " + cb.deactivatedCount);
+                        log("Deactivated: " + cb.toString() + " " + cb.deactivatedCount);
                     }
                 }
             }
         }
     }
 
+    private static void log(String msg) {
+        if (GlobalConfiguration.STATS) {
+            Logger.info(msg);
+        } else {
+            Logger.debug(msg);
+        }
+    }
+
     /**
      * Returns an array that contains all Graal.js tags used by NodeProf
      */
@@ -0,0 +1,144 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.ArrayList;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.instrumentation.EventBinding;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNodeFactory;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+
+/**
+ * The event bindings created by one NodeProfAnalysis.analysisReady (or on*Callback) call.
+ *
+ * The filters and factories are retained, so the bindings can be disposed with {@link #detach()},
+ * which removes the instrumentation from the ASTs, and attached again later with
+ * {@link #attach()}. The handlers of analysisReady are registered in the SharedBindings, detaching
+ * them switches them off in the shared bindings without recreating the event nodes of the other
+ * analyses.
+ */
+public final class AnalysisBindings {
+    private static final class Attachment {
+        final SourceSectionFilter eventFilter;
+        final SourceSectionFilter inputFilter;
+        final ExecutionEventNodeFactory factory;
+        EventBinding<? extends ExecutionEventNodeFactory> binding;
+
+        Attachment(SourceSectionFilter eventFilter, SourceSectionFilter inputFilter, ExecutionEventNodeFactory factory) {
+            this.eventFilter = eventFilter;
+            this.inputFilter = inputFilter;
+            this.factory = factory;
+        }
+    }
+
+    private final Instrumenter instrumenter;
+    private final ArrayList<Attachment> attachments = new ArrayList<>();
+    private boolean attached = true;
+
+    // the registration in the shared bindings, if any
+    private SharedBindings shared = null;
+    private SharedBindings.Registration registration = null;
+
+    AnalysisBindings(Instrumenter instrumenter) {
+        this.instrumenter = instrumenter;
+    }
+
+    /**
+     * attach an event node factory and retain its binding
+     *
+     * @param inputFilter filter for the input events, or null
+     */
+    @TruffleBoundary
+    synchronized void attachFactory(SourceSectionFilter eventFilter, SourceSectionFilter inputFilter, ExecutionEventNodeFactory factory) {
+        Attachment attachment = new Attachment(eventFilter, inputFilter, factory);
+        attachments.add(attachment);
+        if (!DelayedStart.isStarted()) {
+            DelayedStart.runWhenStarted(this::bindPending);
+        } else if (attached) {
+            attachment.binding = instrumenter.attachExecutionEventFactory(eventFilter, inputFilter, factory);
+        }
+    }
+
+    /**
+     * attach the factories not yet attached because of --nodeprof.StartAfter
+     */
+    private synchronized void bindPending() {
+        if (attached) {
+            for (Attachment attachment : attachments) {
+                if (attachment.binding == null) {
+                    attachment.binding = instrumenter.attachExecutionEventFactory(attachment.eventFilter, attachment.inputFilter, attachment.factory);
+                }
+            }
+        }
+    }
+
+    synchronized void setRegistration(SharedBindings sharedBindings, SharedBindings.Registration sharedRegistration) {
+        assert attached;
+        this.shared = sharedBindings;
+        this.registration = sharedRegistration;
+    }
+
+    /**
+     * dispose the bindings, Truffle then removes the event nodes from the ASTs
+     *
+     * @return false if the bindings were already detached
+     */
+    @TruffleBoundary
+    public synchronized boolean detach() {
+        if (!attached) {
+            return false;
+        }
+        for (Attachment attachment : attachments) {
+            if (attachment.binding != null) {
+                attachment.binding.dispose();
+                attachment.binding = null;
+            }
+        }
+        if (registration != null) {
+            shared.setAttached(registration, false);
+        }
+        attached = false;
+        return true;
+    }
+
+    /**
+     * attach the factories again after {@link #detach()}, new event nodes are created for every
+     * instrumented node
+     *
+     * @return false if the bindings were already attached
+     */
+    @TruffleBoundary
+    public synchronized boolean attach() {
+        if (attached) {
+            return false;
+        }
+        attached = true;
+        if (DelayedStart.isStarted()) {
+            bindPending();
+        }
+        if (registration != null) {
+            shared.setAttached(registration, true);
+        }
+        return true;
+    }
+
+    public synchronized boolean isAttached() {
+        return attached;
+    }
+}
@@ -0,0 +1,141 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.ArrayList;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.instrumentation.EventBinding;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+import com.oracle.truffle.api.instrumentation.StandardTags;
+
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * Delayed start of the instrumentation (see --nodeprof.StartAfter), e.g., to skip the startup of
+ * a server.
+ *
+ * Until the start, the analyses are loaded and register their callbacks as usual, but no event
+ * factory is attached, i.e., the program runs without instrumentation. The factories are attached
+ * after the given time, at the first call of the given function, or when J$.attachNow() is called,
+ * whichever comes first.
+ */
+public final class DelayedStart {
+
+    private static final Pattern TIME = Pattern.compile("(\\d+)(ms|s)?");
+
+    private static boolean started = true;
+
+    /**
+     * the actions waiting for the start, in order
+     */
+    private static final ArrayList<Runnable> pending = new ArrayList<>();
+
+    private static Timer timer = null;
+    private static EventBinding<?> trigger = null;
+
+    private DelayedStart() {
+    }
+
+    @TruffleBoundary
+    public static synchronized void setup(Instrumenter instrumenter) {
+        String startAfter = GlobalConfiguration.START_AFTER.trim();
+        if (startAfter.isEmpty()) {
+            return;
+        }
+        started = false;
+        Matcher m = TIME.matcher(startAfter);
+        if (m.matches()) {
+            long delay = Long.parseLong(m.group(1)) * ("s".equals(m.group(2)) ? 1000 : 1);
+            timer = new Timer("nodeprof-start", true);
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    start("after " + startAfter);
+                }
+            }, delay);
+        } else {
+            SourceSectionFilter filter = SourceSectionFilter.newBuilder().tagIs(StandardTags.RootTag.class).rootNameIs(startAfter::equals).build();
+            trigger = instrumenter.attachExecutionEventFactory(filter, context -> new ExecutionEventNode() {
+                @Override
+                protected void onEnter(VirtualFrame frame) {
+                    CompilerDirectives.transferToInterpreter();
+                    start("at the first call of " + startAfter);
+                }
+            });
+        }
+        Logger.info("Instrumentation delayed until " + (timer != null ? startAfter : "the first call of " + startAfter));
+    }
+
+    public static synchronized boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * run the action now if the instrumentation is started, or at the start otherwise
+     */
+    @TruffleBoundary
+    public static synchronized void runWhenStarted(Runnable action) {
+        if (started) {
+            action.run();
+        } else {
+            pending.add(action);
+        }
+    }
+
+    /**
+     * attach the instrumentation now
+     *
+     * @param reason for the log
+     * @return false if the instrumentation was already started
+     */
+    @TruffleBoundary
+    public static boolean start(String reason) {
+        ArrayList<Runnable> actions;
+        synchronized (DelayedStart.class) {
+            if (started) {
+                return false;
+            }
+            started = true;
+            if (timer != null) {
+                timer.cancel();
+                timer = null;
+            }
+            if (trigger != null) {
+                trigger.dispose();
+                trigger = null;
+            }
+            actions = new ArrayList<>(pending);
+            pending.clear();
+        }
+        Logger.info("Attaching the instrumentation " + reason);
+        // outside of the lock, the actions take the locks of the bindings
+        for (Runnable action : actions) {
+            action.run();
+        }
+        return true;
+    }
+}
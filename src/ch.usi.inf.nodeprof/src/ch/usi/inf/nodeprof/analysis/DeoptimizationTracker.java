@@ -0,0 +1,129 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.nodes.RootNode;
+import com.oracle.truffle.api.source.SourceSection;
+
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
+import ch.usi.inf.nodeprof.utils.Logger;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+
+/**
+ * Counts the invalidations of compiled code caused by handler updates, i.e., deactivations,
+ * reactivations and replacements of handlers, per instrumented location and per root.
+ *
+ * Locations updating their handlers more than --nodeprof.MaxHandlerUpdates times keep their
+ * handler (see ProfilerExecutionEventNode). The worst offenders are reported at exit.
+ */
+public final class DeoptimizationTracker {
+
+    /**
+     * number of locations and roots reported at exit
+     */
+    private static final int REPORT_SIZE = 10;
+
+    /**
+     * the report is only printed (without --nodeprof.Stats) if a location has at least this
+     * number of invalidations
+     */
+    private static final int REPORT_THRESHOLD = 10;
+
+    private static final HashMap<Integer, int[]> perSite = new HashMap<>();
+    private static final HashMap<String, int[]> perRoot = new HashMap<>();
+    private static final ArrayList<String> limited = new ArrayList<>();
+
+    private DeoptimizationTracker() {
+    }
+
+    /**
+     * @return true if a location with the given number of handler updates should keep its handler
+     */
+    static boolean isOverLimit(int updates) {
+        return GlobalConfiguration.MAX_HANDLER_UPDATES > 0 && updates >= GlobalConfiguration.MAX_HANDLER_UPDATES;
+    }
+
+    /**
+     * Records an invalidation of the instrumented node of the context, to be called after
+     * CompilerDirectives.transferToInterpreterAndInvalidate().
+     */
+    @TruffleBoundary
+    public static synchronized void recordInvalidation(EventContext context) {
+        SourceSection section = context.getInstrumentedSourceSection();
+        int iid = SourceMapping.getIIDForSourceSection(section);
+        perSite.computeIfAbsent(iid, k -> new int[1])[0]++;
+        perRoot.computeIfAbsent(getRootName(context), k -> new int[1])[0]++;
+    }
+
+    @TruffleBoundary
+    static synchronized void reportLimited(EventContext context, String tag) {
+        int iid = SourceMapping.getIIDForSourceSection(context.getInstrumentedSourceSection());
+        String entry = iid + " " + tag + " " + SourceMapping.getLocationForIID(iid);
+        Logger.debug("Handler updates limited at " + entry);
+        limited.add(entry);
+    }
+
+    private static String getRootName(EventContext context) {
+        RootNode root = context.getInstrumentedNode().getRootNode();
+        if (root == null) {
+            return "<unknown>";
+        }
+        SourceSection section = root.getSourceSection();
+        String location = section == null ? "" : " " + SourceMapping.makeLocationString(section);
+        return root.getName() + location;
+    }
+
+    private static <K> ArrayList<Entry<K, int[]>> worst(HashMap<K, int[]> counts) {
+        ArrayList<Entry<K, int[]>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort((a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]));
+        return new ArrayList<>(entries.subList(0, Math.min(REPORT_SIZE, entries.size())));
+    }
+
+    /**
+     * report the locations and roots with the most invalidations
+     */
+    @TruffleBoundary
+    public static synchronized void dump() {
+        if (perSite.isEmpty()) {
+            return;
+        }
+        ArrayList<Entry<Integer, int[]>> sites = worst(perSite);
+        if (!GlobalConfiguration.STATS && sites.get(0).getValue()[0] < REPORT_THRESHOLD && limited.isEmpty()) {
+            return;
+        }
+        Logger.info("Invalidations caused by handler updates, by location:");
+        for (Entry<Integer, int[]> entry : sites) {
+            Logger.info("  " + entry.getValue()[0] + " " + entry.getKey() + " " + SourceMapping.getLocationForIID(entry.getKey()));
+        }
+        Logger.info("Invalidations caused by handler updates, by function:");
+        for (Entry<String, int[]> entry : worst(perRoot)) {
+            Logger.info("  " + entry.getValue()[0] + " " + entry.getKey());
+        }
+        if (!limited.isEmpty()) {
+            Logger.info("Handler updates limited by --nodeprof.MaxHandlerUpdates=" + GlobalConfiguration.MAX_HANDLER_UPDATES + " for " + limited.size() + " location(s):");
+            for (String entry : limited) {
+                Logger.info("  " + entry);
+            }
+        }
+    }
+}
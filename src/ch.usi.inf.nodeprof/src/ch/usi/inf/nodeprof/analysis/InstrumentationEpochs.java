@@ -0,0 +1,78 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.HashMap;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.Truffle;
+
+/**
+ * Registry of the instrumentation epochs of deactivated sites.
+ *
+ * A ProfilerExecutionEventNode whose handlers (or some of them) got deactivated keeps the
+ * assumption of the current epoch of its IID. The assumption is invalidated by
+ * {@link #reactivate(int)} or {@link #reactivateAll()} (i.e., <code>J$.reactivate(iid)</code> and
+ * <code>J$.reactivateAll()</code>), and the node restores its handlers on its next execution.
+ */
+public final class InstrumentationEpochs {
+    private static final HashMap<Integer, Assumption> epochs = new HashMap<>();
+
+    /**
+     * @return the assumption that stays valid until the site with the given IID is reactivated
+     */
+    @TruffleBoundary
+    static synchronized Assumption getEpoch(int iid) {
+        Assumption epoch = epochs.get(iid);
+        if (epoch == null || !epoch.isValid()) {
+            epoch = Truffle.getRuntime().createAssumption("NodeProf site " + iid + " deactivated");
+            epochs.put(iid, epoch);
+        }
+        return epoch;
+    }
+
+    /**
+     * reactivate the deactivated handlers of a site
+     *
+     * @return true if the site had deactivated handlers
+     */
+    @TruffleBoundary
+    public static synchronized boolean reactivate(int iid) {
+        Assumption epoch = epochs.remove(iid);
+        if (epoch == null) {
+            return false;
+        }
+        epoch.invalidate();
+        return true;
+    }
+
+    /**
+     * reactivate the deactivated handlers of all sites
+     *
+     * @return the number of sites with deactivated handlers
+     */
+    @TruffleBoundary
+    public static synchronized int reactivateAll() {
+        int count = epochs.size();
+        for (Assumption epoch : epochs.values()) {
+            epoch.invalidate();
+        }
+        epochs.clear();
+        return count;
+    }
+}
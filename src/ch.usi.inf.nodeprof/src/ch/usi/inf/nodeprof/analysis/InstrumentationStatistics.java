@@ -0,0 +1,146 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.source.Source;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+
+/**
+ * Statistics on the instrumentation created so far: instrumented nodes per tag, per source and per
+ * analysis, sources included or excluded by the source filters, IID table size and deactivations.
+ *
+ * The statistics are available from Java with NodeProfInstrument.getInstrumentationStatistics()
+ * and from Jalangi analyses with J$.getInstrumentationStats(). Node counts include the nodes
+ * instrumented again after an analysis is attached or detached.
+ */
+public final class InstrumentationStatistics {
+
+    private static final HashMap<String, Long> nodesPerSource = new HashMap<>();
+    private static final HashMap<String, Long> handlersPerAnalysis = new HashMap<>();
+
+    /**
+     * sources included by at least one filter, and sources excluded by some filter
+     */
+    private static final LinkedHashSet<String> includedSources = new LinkedHashSet<>();
+    private static final LinkedHashSet<String> excludedSources = new LinkedHashSet<>();
+
+    private InstrumentationStatistics() {
+    }
+
+    private static String getSourceName(Source source) {
+        return source.getPath() != null ? source.getPath() : source.getName();
+    }
+
+    @TruffleBoundary
+    static synchronized void sourceTested(Source source, boolean included) {
+        (included ? includedSources : excludedSources).add(getSourceName(source));
+    }
+
+    @TruffleBoundary
+    static synchronized void nodeInstrumented(Source source) {
+        nodesPerSource.merge(getSourceName(source), 1L, Long::sum);
+    }
+
+    @TruffleBoundary
+    static synchronized void handlerCreated(String analysis) {
+        handlersPerAnalysis.merge(analysis, 1L, Long::sum);
+    }
+
+    /**
+     * @return the number of instrumented nodes, over all tags
+     */
+    public static long getNodeCount() {
+        long nodes = 0;
+        for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+            nodes += tag.nodeCount;
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the number of deactivated nodes, over all tags
+     */
+    public static long getDeactivatedCount() {
+        long deactivated = 0;
+        for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+            deactivated += tag.deactivatedCount;
+        }
+        return deactivated;
+    }
+
+    private static LinkedHashMap<String, Object> sortedByCount(Map<String, Long> counts) {
+        LinkedHashMap<String, Object> result = new LinkedHashMap<>();
+        counts.entrySet().stream().sorted(Entry.<String, Long> comparingByValue().reversed()).forEachOrdered(e -> result.put(e.getKey(), e.getValue()));
+        return result;
+    }
+
+    /**
+     * @return the statistics as nested maps, with Long values for all counts
+     */
+    @TruffleBoundary
+    public static synchronized Map<String, Object> getStatistics() {
+        LinkedHashMap<String, Object> nodesPerTag = new LinkedHashMap<>();
+        LinkedHashMap<String, Object> deactivatedPerTag = new LinkedHashMap<>();
+        long nodes = 0;
+        long deactivated = 0;
+        for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+            if (tag.nodeCount > 0) {
+                nodesPerTag.put(tag.toString(), tag.nodeCount);
+                nodes += tag.nodeCount;
+            }
+            if (tag.deactivatedCount > 0) {
+                deactivatedPerTag.put(tag.toString(), tag.deactivatedCount);
+                deactivated += tag.deactivatedCount;
+            }
+        }
+        long excluded = excludedSources.stream().filter(s -> !includedSources.contains(s)).count();
+
+        LinkedHashMap<String, Object> sources = new LinkedHashMap<>();
+        sources.put("included", (long) includedSources.size());
+        sources.put("excluded", excluded);
+        sources.put("withIIDs", (long) SourceMapping.getSourceCount());
+
+        LinkedHashMap<String, Object> result = new LinkedHashMap<>();
+        result.put("nodes", nodes);
+        result.put("nodesPerTag", nodesPerTag);
+        result.put("nodesPerSource", sortedByCount(nodesPerSource));
+        result.put("handlersPerAnalysis", sortedByCount(handlersPerAnalysis));
+        result.put("sources", sources);
+        result.put("iids", (long) SourceMapping.getIndexCount());
+        result.put("deactivated", deactivated);
+        result.put("deactivatedPerTag", deactivatedPerTag);
+        result.put("deactivatedByGovernor", (long) OverheadGovernor.getDeactivatedCount());
+        return result;
+    }
+
+    @TruffleBoundary
+    public static synchronized void reset() {
+        nodesPerSource.clear();
+        handlersPerAnalysis.clear();
+        includedSources.clear();
+        excludedSources.clear();
+    }
+}
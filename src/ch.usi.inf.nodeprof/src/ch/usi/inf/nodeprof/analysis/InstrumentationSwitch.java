@@ -0,0 +1,113 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.EnumMap;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.Truffle;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+
+/**
+ * A switch to enable or disable the events of one tag for one analysis (or of all the handlers of
+ * one registration in the SharedBindings while it is detached).
+ *
+ * The state is a compilation constant for the event handlers using the switch and is
+ * guarded by an assumption of the switch, so toggling it only invalidates the compiled code that
+ * contains instrumentation with this switch (unlike ProfilerExecutionEventNode.updateEnabled, which
+ * affects all analyses).
+ */
+public final class InstrumentationSwitch {
+    /**
+     * switch for the nodes created without any switch, never toggled
+     */
+    public static final InstrumentationSwitch ALWAYS_ON = new InstrumentationSwitch("always on");
+
+    private final String name;
+
+    @CompilationFinal private volatile boolean enabled = true;
+
+    /**
+     * valid as long as enabled does not change
+     */
+    @CompilationFinal private volatile Assumption unchanged;
+
+    InstrumentationSwitch(String name) {
+        this.name = name;
+        this.unchanged = Truffle.getRuntime().createAssumption(name);
+    }
+
+    public boolean isEnabled() {
+        if (!unchanged.isValid()) {
+            // only reached by compiled code that read the previous state
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+        }
+        return enabled;
+    }
+
+    @TruffleBoundary
+    public synchronized void setEnabled(boolean value) {
+        assert this != ALWAYS_ON;
+        if (enabled == value) {
+            return;
+        }
+        Assumption old = unchanged;
+        enabled = value;
+        unchanged = Truffle.getRuntime().createAssumption(name);
+        old.invalidate();
+    }
+
+    @Override
+    public String toString() {
+        return name + (enabled ? " (enabled)" : " (disabled)");
+    }
+
+    /**
+     * The switches of one analysis, one for every tag.
+     */
+    public static final class PerTag {
+        private final EnumMap<ProfiledTagEnum, InstrumentationSwitch> switches = new EnumMap<>(ProfiledTagEnum.class);
+        private final String analysisName;
+
+        @TruffleBoundary
+        public PerTag(String analysisName) {
+            this.analysisName = analysisName;
+            for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+                switches.put(tag, new InstrumentationSwitch(analysisName + ":" + tag));
+            }
+        }
+
+        public InstrumentationSwitch get(ProfiledTagEnum tag) {
+            return switches.get(tag);
+        }
+
+        public String getAnalysisName() {
+            return analysisName;
+        }
+
+        @TruffleBoundary
+        public void setEnabled(boolean value) {
+            for (InstrumentationSwitch s : switches.values()) {
+                s.setEnabled(value);
+            }
+        }
+    }
+}
@@ -17,29 +17,22 @@
 package ch.usi.inf.nodeprof.analysis;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map.Entry;
 
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
-import com.oracle.truffle.api.instrumentation.EventContext;
-import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
 import com.oracle.truffle.api.instrumentation.ExecutionEventNodeFactory;
-import com.oracle.truffle.api.instrumentation.InstrumentableNode;
 import com.oracle.truffle.api.instrumentation.Instrumenter;
 import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
 import com.oracle.truffle.api.instrumentation.SourceSectionFilter.SourcePredicate;
 import com.oracle.truffle.api.instrumentation.StandardTags;
 import com.oracle.truffle.api.instrumentation.Tag;
 import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
-import com.oracle.truffle.api.source.Source;
 import com.oracle.truffle.js.nodes.instrumentation.JSTags;
-import com.oracle.truffle.js.nodes.instrumentation.JSTags.InputNodeTag;
 
+import ch.usi.inf.nodeprof.NodeProfInstrument;
 import ch.usi.inf.nodeprof.ProfiledTagEnum;
-import ch.usi.inf.nodeprof.analysis.AnalysisFilterSourceList.ScopeEnum;
 import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
-import ch.usi.inf.nodeprof.handlers.MultiEventHandler;
 import ch.usi.inf.nodeprof.jalangi.NodeProfJalangi;
 import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
 import ch.usi.inf.nodeprof.utils.Logger;
@@ -48,6 +41,12 @@ public abstract class NodeProfAnalysis {
     private final Env env;
     private final Instrumenter instrumenter;
     private final String name;
+    private final InstrumentationSwitch.PerTag switches;
+
+    /**
+     * the bindings of all analysisReady and on*Callback calls, see detach() and attach()
+     */
+    private final ArrayList<AnalysisBindings> bindings;
 
     @TruffleBoundary
     public NodeProfAnalysis(String name, Instrumenter instrumenter, Env env) {
@@ -55,6 +54,8 @@ public abstract class NodeProfAnalysis {
         this.instrumenter = instrumenter;
         this.env = env;
         this.handlers = new HashMap<>();
+        this.switches = new InstrumentationSwitch.PerTag(name);
+        this.bindings = new ArrayList<>();
     }
 
     public Instrumenter getInstrumenter() {
@@ -106,11 +107,13 @@ public abstract class NodeProfAnalysis {
     }
 
     @TruffleBoundary
-    public static void enableAnalysis(Instrumenter instrumenter, Env env, String analysisClass) {
+    public static void enableAnalysis(NodeProfInstrument instrument, String analysisClass) {
+        Instrumenter instrumenter = instrument.getInstrumenter();
+        Env env = instrument.getEnv();
         if (!analysisClass.isEmpty()) {
             NodeProfAnalysis analysis = null;
             if (analysisClass.contains("NodeProfJalangi")) {
-                analysis = new NodeProfJalangi(instrumenter, env);
+                analysis = new NodeProfJalangi(instrument);
                 try {
                     analysis.onLoad();
                 } catch (Exception e) {
@@ -212,7 +215,7 @@ public abstract class NodeProfAnalysis {
     @TruffleBoundary
     public void analysisReady() {
         assert (getFilter() != null);
-        analysisReady(getFilter(), handlers);
+        analysisReady(getFilter(), getSamplingConfig(), switches, handlers);
     }
 
     /**
@@ -221,161 +224,86 @@ public abstract class NodeProfAnalysis {
 
     @TruffleBoundary
     public void analysisReady(AnalysisFilterBase filter) {
-        analysisReady(filter, handlers);
+        analysisReady(filter, getSamplingConfig(), switches, handlers);
     }
 
-    // tags that require a separate factory for instrumentation
-    private static final ProfiledTagEnum[] separateFactoryTags = {
-                    ProfiledTagEnum.BUILTIN,
-                    ProfiledTagEnum.STATEMENT,
-                    ProfiledTagEnum.EXPRESSION,
-                    ProfiledTagEnum.CF_BRANCH,
-                    ProfiledTagEnum.ROOT,
-                    ProfiledTagEnum.DECLARE
-    };
+    /**
+     * enable all the callbacks not yet enabled using the provided source filter and sampling
+     */
+    @TruffleBoundary
+    public void analysisReady(AnalysisFilterBase filter, SamplingConfig sampling) {
+        analysisReady(filter, sampling, switches, handlers);
+    }
 
+    /**
+     * enable all the callbacks not yet enabled using the provided source filter, sampling and
+     * instrumentation switches
+     *
+     * @return the bindings of the enabled callbacks
+     */
     @TruffleBoundary
-    private void analysisReady(AnalysisFilterBase sourceFilter, HashMap<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> handlerMapping) {
-        // check if any new callback is registered
-        if (handlerMapping.size() > 0) {
-            ArrayList<Class<? extends Tag>> definedTags = new ArrayList<>();
-            for (Entry<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> entry : handlerMapping.entrySet()) {
-                entry.getKey().usedAnalysis++;
-                if (!Arrays.asList(separateFactoryTags).contains(entry.getKey())) {
-                    definedTags.add(entry.getKey().getTag());
-                }
-            }
+    public AnalysisBindings analysisReady(AnalysisFilterBase filter, SamplingConfig sampling, InstrumentationSwitch.PerTag tagSwitches) {
+        return analysisReady(filter, sampling, tagSwitches, handlers);
+    }
 
-            for (ProfiledTagEnum tag : separateFactoryTags) {
-                if (handlerMapping.containsKey(tag)) {
-                    SourcePredicate sourcePredicate = tag.equals(ProfiledTagEnum.BUILTIN) ? AnalysisFilterSourceList.getFilter(ScopeEnum.builtin) : sourceFilter;
-                    SourceSectionFilter filter = SourceSectionFilter.newBuilder().tagIs(tag.getTag()).sourceIs(sourcePredicate).build();
-
-                    getInstrumenter().attachExecutionEventFactory(
-                                    filter,
-                                    tag.getExpectedNumInputs() == 0 ? null : SourceSectionFilter.newBuilder().tagIs(StandardTags.ExpressionTag.class, InputNodeTag.class).build(),
-                                    new ExecutionEventNodeFactory() {
-                                        @TruffleBoundary
-                                        public ExecutionEventNode create(EventContext context) {
-                                            InstrumentableNode instrumentedNode = (InstrumentableNode) context.getInstrumentedNode();
-                                            if (instrumentedNode.hasTag(tag.getTag())) {
-                                                return createAndSimplifyExecutionEventNode(context, tag, handlerMapping.get(tag));
-                                            } else {
-                                                return new ExecutionEventNode() {
-                                                };
-                                            }
-                                        }
-                                    });
-                }
-            }
+    @TruffleBoundary
+    private AnalysisBindings newBindings() {
+        AnalysisBindings result = new AnalysisBindings(getInstrumenter());
+        bindings.add(result);
+        return result;
+    }
 
-            if (definedTags.size() > 0) {
-                Class<?>[] eventTags = new Class<?>[definedTags.size()];
-                definedTags.toArray(eventTags);
-                SourceSectionFilter eventFilter = SourceSectionFilter.newBuilder().tagIs(eventTags).sourceIs(sourceFilter).build();
-                SourceSectionFilter inputFilter = SourceSectionFilter.newBuilder().tagIs(StandardTags.ExpressionTag.class, InputNodeTag.class).build();
-
-                getInstrumenter().attachExecutionEventFactory(
-                                eventFilter,
-                                inputFilter,
-                                new ExecutionEventNodeFactory() {
-
-                                    @Override
-                                    @TruffleBoundary
-                                    public ExecutionEventNode create(EventContext context) {
-                                        int count = 0;
-                                        InstrumentableNode instrumentedNode = (InstrumentableNode) context.getInstrumentedNode();
-                                        for (Entry<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> entry : handlerMapping.entrySet()) {
-                                            if (instrumentedNode.hasTag(entry.getKey().getTag()) && !Arrays.asList(separateFactoryTags).contains(entry.getKey())) {
-                                                count += 1;
-                                            }
-                                        }
-                                        // a node should never have two tags the same time(except
-                                        // for the built-in)
-                                        if (count > 1) {
-                                            Logger.error("a node has more than 1 profiling tags!!");
-                                            String tags = "";
-                                            for (Entry<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> entry : handlerMapping.entrySet()) {
-                                                if (instrumentedNode.hasTag(entry.getKey().getTag()) && !Arrays.asList(separateFactoryTags).contains(entry.getKey())) {
-                                                    tags += entry.getKey().getTag().getSimpleName() + " ";
-                                                }
-                                            }
-                                            Logger.error(context.getInstrumentedSourceSection(), context.getInstrumentedNode().getClass().getName() + " has tags: " + tags);
-                                        }
-
-                                        assert (count <= 1);
-                                        for (Entry<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> entry : handlerMapping.entrySet()) {
-                                            try {
-                                                ProfiledTagEnum key = entry.getKey();
-                                                Source source = context.getInstrumentedSourceSection().getSource();
-                                                if (instrumentedNode.hasTag(key.getTag()) && !Arrays.asList(separateFactoryTags).contains(entry.getKey()) && sourceFilter.testTag(source, key)) {
-                                                    return createAndSimplifyExecutionEventNode(context, entry.getKey(), entry.getValue());
-                                                }
-                                            } catch (Exception exception) {
-                                                exception.printStackTrace();
-                                            }
-                                        }
-                                        // if there is no handler for this node, return an empty
-                                        // ExecutionEventNode which should bring zero overhead after
-                                        // compilation
-                                        return new ExecutionEventNode() {
-                                        };
-                                    }
-
-                                });
-            }
+    /**
+     * Removes all the instrumentation of the analysis, e.g., to run without any overhead for a while.
+     * The analysis can be attached again with {@link #attach()}.
+     */
+    @TruffleBoundary
+    public void detach() {
+        for (AnalysisBindings b : bindings) {
+            b.detach();
         }
-        this.handlers = new HashMap<>();
     }
 
     /**
-     * create the ExecutionEventNode with the proper handler
-     *
-     * @param context
-     * @param key
-     * @param listOfHandlers
-     * @return a ProfilerExecutionEventNode or an empty ExecutionEventNode
+     * Restores the instrumentation removed with {@link #detach()}.
      */
     @TruffleBoundary
-    private static ExecutionEventNode createAndSimplifyExecutionEventNode(EventContext context, ProfiledTagEnum key, ArrayList<AnalysisFactory<BaseEventHandlerNode>> listOfHandlers) {
-        BaseEventHandlerNode handler = null;
-        if (listOfHandlers.size() == 1) {
-            // create the handler using the only factory
-            handler = listOfHandlers.get(0).create(context);
-        } else {
-            // create the handlers one by one
-            BaseEventHandlerNode[] components = new BaseEventHandlerNode[listOfHandlers.size()];
-            int numNonEmpty = 0;
-            BaseEventHandlerNode last = null;
-            for (int i = 0; i < components.length; i++) {
-                components[i] = listOfHandlers.get(i).create(context);
-                if (components[i] != null) {
-                    numNonEmpty++;
-                    last = components[i];
-                }
-            }
-            if (numNonEmpty == 0) {
-                handler = null;
-            } else if (numNonEmpty == 1) {
-                handler = last;
-            } else {
-                BaseEventHandlerNode[] handlers = new BaseEventHandlerNode[numNonEmpty];
-                int cnt = 0;
-                for (int i = 0; i < components.length; i++) {
-                    if (components[i] != null) {
-                        handlers[cnt++] = components[i];
-                    }
-                }
-                handler = MultiEventHandler.create(key, handlers);
-            }
+    public void attach() {
+        for (AnalysisBindings b : bindings) {
+            b.attach();
         }
-        if (handler != null) {
-            return new ProfilerExecutionEventNode(key, context,
-                            handler);
-        } else {
-            return new ExecutionEventNode() {
-            };
+    }
+
+    /**
+     * @return the switches for the events of this analysis, one per tag
+     */
+    public InstrumentationSwitch.PerTag getSwitches() {
+        return switches;
+    }
+
+    /**
+     * @return the sampling of the analysis events, by default set with --nodeprof.SampleRate and
+     *         --nodeprof.SampleBurst
+     */
+    public SamplingConfig getSamplingConfig() {
+        return SamplingConfig.getDefault();
+    }
+
+    @TruffleBoundary
+    private AnalysisBindings analysisReady(AnalysisFilterBase sourceFilter, SamplingConfig sampling, InstrumentationSwitch.PerTag tagSwitches,
+                    HashMap<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> handlerMapping) {
+        AnalysisBindings result = newBindings();
+        // check if any new callback is registered
+        if (handlerMapping.size() > 0) {
+            for (ProfiledTagEnum tag : handlerMapping.keySet()) {
+                tag.usedAnalysis++;
+            }
+            // the handlers are merged with those of the other analyses, see SharedBindings
+            SharedBindings shared = SharedBindings.get(getInstrumenter());
+            result.setRegistration(shared, shared.register(sourceFilter, sampling, tagSwitches, handlerMapping));
         }
+        this.handlers = new HashMap<>();
+        return result;
     }
 
     /**
@@ -397,7 +325,7 @@ public abstract class NodeProfAnalysis {
     @TruffleBoundary
     public void onAllCallback(ExecutionEventNodeFactory factory,
                     SourcePredicate sourcePredicate) {
-        getInstrumenter().attachExecutionEventFactory(
+        newBindings().attachFactory(
                         SourceSectionFilter.newBuilder().tagIs(ProfiledTagEnum.getTags()).sourceIs(sourcePredicate).build(),
                         SourceSectionFilter.newBuilder().tagIs(StandardTags.ExpressionTag.class, JSTags.InputNodeTag.class).build(),
                         factory);
@@ -406,7 +334,7 @@ public abstract class NodeProfAnalysis {
     @TruffleBoundary
     public void onSingleTagCallback(Class<? extends Tag> tag, ExecutionEventNodeFactory factory,
                     SourcePredicate sourcePredicate) {
-        getInstrumenter().attachExecutionEventFactory(
+        newBindings().attachFactory(
                         SourceSectionFilter.newBuilder().tagIs(tag).sourceIs(sourcePredicate).build(),
                         SourceSectionFilter.newBuilder().tagIs(StandardTags.ExpressionTag.class, JSTags.InputNodeTag.class).build(),
                         factory);
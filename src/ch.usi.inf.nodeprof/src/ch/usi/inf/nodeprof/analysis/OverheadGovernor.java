@@ -0,0 +1,116 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.ArrayList;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.source.SourceSection;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
+import ch.usi.inf.nodeprof.utils.Logger;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+
+/**
+ * Overhead budget for instrumented nodes (see --nodeprof.MaxEventsPerSecond and
+ * --nodeprof.MaxCallbackTimeShare).
+ *
+ * Every ProfilerExecutionEventNode counts its events and samples the time spent in its handlers.
+ * Nodes exceeding the budget remove their instrumentation like a handler that deactivates itself,
+ * and are reported at exit. Like such handlers, they are restored by J$.reactivate and
+ * J$.reactivateAll, and keep checking their budget afterwards.
+ */
+public final class OverheadGovernor {
+
+    /**
+     * one in (TIMING_MASK + 1) handler executions is timed
+     */
+    static final int TIMING_MASK = 63;
+    static final int TIMING_SHIFT = 6;
+
+    /**
+     * number of events between two checks of the time share
+     */
+    private static final int TIME_CHECK_INTERVAL = 1024;
+
+    /**
+     * the time share is only checked after this time, to avoid deactivations during startup
+     */
+    private static final long MIN_TIME_SHARE_NANOS = 1_000_000_000L;
+
+    private static final long startTime = System.nanoTime();
+
+    private static final ArrayList<String> deactivated = new ArrayList<>();
+
+    public static boolean isEnabled() {
+        return GlobalConfiguration.MAX_EVENTS_PER_SECOND > 0 || GlobalConfiguration.MAX_CALLBACK_TIME_SHARE > 0;
+    }
+
+    /**
+     * @return the number of events after which a node checks its budget
+     */
+    static int getCheckInterval() {
+        return GlobalConfiguration.MAX_EVENTS_PER_SECOND > 0 ? GlobalConfiguration.MAX_EVENTS_PER_SECOND : TIME_CHECK_INTERVAL;
+    }
+
+    /**
+     * @param windowStart start of the window of the last getCheckInterval() events
+     * @param callbackNanos estimated time spent in the handlers of the node
+     * @return the reason why the node exceeds the budget, or null
+     */
+    @TruffleBoundary
+    static String checkBudget(long windowStart, long callbackNanos) {
+        long now = System.nanoTime();
+        if (GlobalConfiguration.MAX_EVENTS_PER_SECOND > 0 && now - windowStart < 1_000_000_000L) {
+            return "more than " + GlobalConfiguration.MAX_EVENTS_PER_SECOND + " events per second";
+        }
+        long total = now - startTime;
+        if (GlobalConfiguration.MAX_CALLBACK_TIME_SHARE > 0 && total > MIN_TIME_SHARE_NANOS && callbackNanos * 100.0 > GlobalConfiguration.MAX_CALLBACK_TIME_SHARE * total) {
+            return String.format("%.1f%% of the execution time in callbacks", callbackNanos * 100.0 / total);
+        }
+        return null;
+    }
+
+    @TruffleBoundary
+    static synchronized void reportDeactivated(SourceSection section, ProfiledTagEnum tag, String reason) {
+        int iid = SourceMapping.getIIDForSourceSection(section);
+        String entry = iid + " " + tag + " " + SourceMapping.getLocationForIID(iid) + ": " + reason;
+        Logger.debug("Governor deactivated " + entry);
+        deactivated.add(entry);
+    }
+
+    /**
+     * @return the number of nodes deactivated by the governor
+     */
+    static synchronized int getDeactivatedCount() {
+        return deactivated.size();
+    }
+
+    /**
+     * report the deactivated nodes
+     */
+    @TruffleBoundary
+    public static synchronized void dump() {
+        if (!deactivated.isEmpty()) {
+            Logger.info("Instrumentation deactivated by the overhead governor for " + deactivated.size() + " location(s):");
+            for (String entry : deactivated) {
+                Logger.info("  " + entry);
+            }
+        }
+    }
+}
@@ -16,6 +16,9 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof.analysis;
 
+import java.util.Arrays;
+
+import com.oracle.truffle.api.Assumption;
 import com.oracle.truffle.api.CompilerDirectives;
 import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
@@ -35,6 +38,60 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
     protected final ProfiledTagEnum cb;
     @Child BaseEventHandlerNode child;
     int hasOnEnter = 0;
+
+    /**
+     * the handler the node was created with, restored (minus the handlers that removed themselves
+     * for good) when the site is reactivated
+     */
+    private final BaseEventHandlerNode initialChild;
+
+    /**
+     * true if all handlers of the node are deactivated, the node then acts as an empty
+     * ExecutionEventNode until the site is reactivated
+     */
+    @CompilationFinal private boolean deactivated = false;
+
+    /**
+     * epoch of the site (see InstrumentationEpochs) if some handlers of the node are deactivated,
+     * invalidated when the site is reactivated
+     */
+    @CompilationFinal private Assumption epoch = null;
+
+    /**
+     * number of handler updates (deactivations, reactivations and replacements), each one
+     * invalidates the compiled code. Over --nodeprof.MaxHandlerUpdates, the node keeps its handler
+     * (see useGenericHandler).
+     */
+    private int handlerUpdates = 0;
+    @CompilationFinal private boolean generic = false;
+
+    /**
+     * sampling (see SamplingConfig): the handler runs for sampleBurst consecutive executions out of
+     * every sampleRate executions, with a countdown per node
+     */
+    private final int sampleRate;
+    private final int sampleBurst;
+    private int sampleCountdown = 1;
+    private int burstLeft = 0;
+
+    /**
+     * one bit per active (possibly recursive) execution of the node, bit i of the array is set if
+     * execution i (from the outermost one) is sampled. The array grows with the recursion depth, so
+     * every sampled execution gets its post event. Every enter pushes a bit and every return pops
+     * one, whether the node is switched off or deactivated or not, so the bits stay matched with the
+     * executions when the node is switched or deactivated in between.
+     */
+    private long[] sampledStack = new long[1];
+    private int sampledDepth = 0;
+
+    /**
+     * overhead budget (see OverheadGovernor): events since the start of the current window and the
+     * estimated time spent in the handlers of this node
+     */
+    private long windowStart = System.nanoTime();
+    private int windowEvents = 0;
+    private int timingCounter = 0;
+    private long callbackNanos = 0;
     /**
      * A flag to switch on/off the profiling analysis: true => enabled, false => disabled
      *
@@ -60,10 +117,113 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
 
     public ProfilerExecutionEventNode(ProfiledTagEnum cb, EventContext context,
                     BaseEventHandlerNode child) {
+        this(cb, context, child, SamplingConfig.NONE);
+    }
+
+    public ProfilerExecutionEventNode(ProfiledTagEnum cb, EventContext context,
+                    BaseEventHandlerNode child, SamplingConfig sampling) {
         this.context = context;
         this.cb = cb;
         this.cb.nodeCount++;
         this.child = child;
+        this.initialChild = child;
+        this.sampleRate = sampling.getRate();
+        this.sampleBurst = sampling.getBurst();
+    }
+
+    /**
+     * @return true if the current execution should be sampled
+     */
+    private boolean sample() {
+        if (--sampleCountdown <= 0) {
+            sampleCountdown = sampleRate;
+            burstLeft = sampleBurst - 1;
+            return true;
+        }
+        if (burstLeft > 0) {
+            burstLeft--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the current (innermost) execution is sampled
+     */
+    private boolean isSampled() {
+        return sampleRate == 1 || (sampledDepth > 0 && isSampledAt(sampledDepth - 1));
+    }
+
+    private boolean isSampledAt(int depth) {
+        return (sampledStack[depth >>> 6] & (1L << depth)) != 0;
+    }
+
+    private void pushSampled(boolean sampled) {
+        int depth = sampledDepth++;
+        if ((depth >>> 6) >= sampledStack.length) {
+            growSampledStack();
+        }
+        long mask = 1L << depth;
+        if (sampled) {
+            sampledStack[depth >>> 6] |= mask;
+        } else {
+            sampledStack[depth >>> 6] &= ~mask;
+        }
+    }
+
+    @TruffleBoundary
+    private void growSampledStack() {
+        sampledStack = Arrays.copyOf(sampledStack, sampledStack.length * 2);
+    }
+
+    /**
+     * @return true if the execution that just finished was sampled, false for executions that
+     *         started before the node was created
+     */
+    private boolean popSampled() {
+        if (sampleRate == 1) {
+            return true;
+        }
+        if (sampledDepth == 0) {
+            return false;
+        }
+        return isSampledAt(--sampledDepth);
+    }
+
+    /**
+     * @return true if the node exceeded its overhead budget and removed its instrumentation
+     */
+    private boolean overBudget() {
+        if (++windowEvents < OverheadGovernor.getCheckInterval()) {
+            return false;
+        }
+        windowEvents = 0;
+        String reason = OverheadGovernor.checkBudget(windowStart, callbackNanos);
+        windowStart = System.nanoTime();
+        if (reason == null) {
+            return false;
+        }
+        CompilerDirectives.transferToInterpreterAndInvalidate();
+        OverheadGovernor.reportDeactivated(context.getInstrumentedSourceSection(), cb, reason);
+        removeInstrumentation(true);
+        return true;
+    }
+
+    /**
+     * @return the start time if the current handler execution is timed, 0 otherwise
+     */
+    private long startTiming() {
+        if (GlobalConfiguration.MAX_CALLBACK_TIME_SHARE > 0 && (timingCounter++ & OverheadGovernor.TIMING_MASK) == 0) {
+            return System.nanoTime();
+        }
+        return 0;
+    }
+
+    private void stopTiming(long start) {
+        if (start != 0) {
+            // extrapolate the sampled time to all handler executions
+            callbackNanos += (System.nanoTime() - start) << OverheadGovernor.TIMING_SHIFT;
+        }
     }
 
     public EventContext getContext() {
@@ -73,17 +233,21 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
     @Override
     protected void onInputValue(VirtualFrame frame, EventContext inputContext,
                     int inputIndex, Object inputValue) {
-        if (!profilerEnabled) {
+        if (!profilerEnabled || !child.isSwitchedOn() || deactivated || !isSampled()) {
             return;
         }
-        if (child.expectedNumInputs() < 0 || inputIndex < child.expectedNumInputs()) {
+        if ((child.expectedNumInputs() < 0 || inputIndex < child.expectedNumInputs()) && child.usesInput(inputIndex)) {
             // save input only necessary
             saveInputValue(frame, inputIndex, inputValue);
         }
         if (this.child.isLastIndex(getInputCount(), inputIndex)) {
-            this.cb.preHitCount++;
+            if (GlobalConfiguration.STATS) {
+                this.cb.countPre();
+            }
             try {
+                long start = startTiming();
                 this.child.executePre(frame, child.expectedNumInputs() != 0 ? getSavedInputValues(frame) : null);
+                stopTiming(start);
 
                 // allow for handler changes after executePre/Post
                 checkHandlerChanges();
@@ -95,7 +259,21 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
 
     @Override
     protected void onEnter(VirtualFrame frame) {
-        if (!profilerEnabled) {
+        boolean sampled = true;
+        if (sampleRate != 1) {
+            sampled = sample();
+            pushSampled(sampled);
+        }
+        if (!profilerEnabled || !child.isSwitchedOn()) {
+            return;
+        }
+        if (epoch != null && !epoch.isValid()) {
+            reactivate();
+        }
+        if (deactivated || !sampled) {
+            return;
+        }
+        if (OverheadGovernor.isEnabled() && overBudget()) {
             return;
         }
 
@@ -103,8 +281,12 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
         try {
             this.child.enter(frame);
             if (this.child.isLastIndex(getInputCount(), -1)) {
-                this.cb.preHitCount++;
+                if (GlobalConfiguration.STATS) {
+                    this.cb.countPre();
+                }
+                long start = startTiming();
                 this.child.executePre(frame, null);
+                stopTiming(start);
 
                 // allow for handler changes after executePre/Post
                 checkHandlerChanges();
@@ -116,16 +298,21 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
 
     @Override
     protected void onReturnValue(VirtualFrame frame, Object result) {
-        if (!profilerEnabled) {
+        boolean sampled = popSampled();
+        if (!profilerEnabled || !child.isSwitchedOn() || deactivated || !sampled) {
             return;
         }
         Object[] inputs = null;
         try {
             if (hasOnEnter > 0) {
                 hasOnEnter--;
-                this.cb.postHitCount++;
+                if (GlobalConfiguration.STATS) {
+                    this.cb.countPost();
+                }
                 inputs = child.expectedNumInputs() != 0 ? getSavedInputValues(frame) : null;
+                long start = startTiming();
                 this.child.executePost(frame, result, inputs);
+                stopTiming(start);
 
                 // allow for handler changes after executePre/Post
                 checkHandlerChanges();
@@ -162,7 +349,8 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
 
     @Override
     protected void onReturnExceptional(VirtualFrame frame, Throwable exception) {
-        if (!profilerEnabled) {
+        boolean sampled = popSampled();
+        if (!profilerEnabled || !child.isSwitchedOn() || deactivated || !sampled) {
             return;
         }
 
@@ -170,7 +358,9 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
         try {
             if (hasOnEnter > 0) {
                 hasOnEnter--;
-                this.cb.exceptionHitCount++;
+                if (GlobalConfiguration.STATS) {
+                    this.cb.countException();
+                }
                 if (exception instanceof ControlFlowException) {
                     inputs = child.expectedNumInputs() != 0 ? getSavedInputValues(frame) : null;
                     this.child.executeExceptionalCtrlFlow(frame, exception, inputs);
@@ -189,25 +379,83 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
     }
 
     private void checkHandlerChanges() {
+        if (generic) {
+            return;
+        }
         // check for handler changes
         BaseEventHandlerNode newChild = this.child.wantsToUpdateHandler();
-        if (newChild == null) {
-            removeInstrumentation();
-        } else if (newChild != this.child) {
+        if (newChild == this.child) {
+            return;
+        }
+        if (DeoptimizationTracker.isOverLimit(handlerUpdates)) {
+            useGenericHandler(newChild);
+        } else if (newChild == null) {
+            removeInstrumentation(initialChild.hasDeactivatedHandlers());
+        } else {
             updateChild(newChild);
         }
     }
 
     private void updateChild(BaseEventHandlerNode newChild) {
         CompilerDirectives.transferToInterpreterAndInvalidate();
+        countHandlerUpdate();
         this.child = insert(newChild);
+        if (initialChild.hasDeactivatedHandlers()) {
+            this.epoch = InstrumentationEpochs.getEpoch(this.child.getSourceIID());
+        }
     }
 
-    private void removeInstrumentation() {
+    /**
+     * Stops updating the handler after too many updates. The current handler is kept, it skips
+     * its deactivated handlers itself (see MultiEventHandler). If all handlers are deactivated,
+     * the instrumentation is removed for good.
+     */
+    private void useGenericHandler(BaseEventHandlerNode newChild) {
+        CompilerDirectives.transferToInterpreterAndInvalidate();
+        this.generic = true;
+        DeoptimizationTracker.reportLimited(context, cb.toString());
+        if (newChild == null) {
+            removeInstrumentation(false);
+        }
+    }
+
+    private void countHandlerUpdate() {
+        handlerUpdates++;
+        DeoptimizationTracker.recordInvalidation(context);
+    }
+
+    /**
+     * @param reactivatable true if the site can be reactivated, false if all handlers removed
+     *            themselves for good
+     */
+    private void removeInstrumentation(boolean reactivatable) {
         CompilerDirectives.transferToInterpreterAndInvalidate();
         Logger.debug("Removing instrumentation for " + this.child.getClass().getTypeName() + " / " + this + " @ " + context.getInstrumentedNode());
-        this.replace(new ExecutionEventNode() {
-        }, "NodeProf instrumentation handler removed");
+        countHandlerUpdate();
+        this.deactivated = true;
+        if (reactivatable && !generic) {
+            this.epoch = InstrumentationEpochs.getEpoch(this.child.getSourceIID());
+        }
         this.cb.deactivatedCount++;
     }
+
+    /**
+     * restore the deactivated handlers after the site got reactivated
+     */
+    private void reactivate() {
+        CompilerDirectives.transferToInterpreterAndInvalidate();
+        countHandlerUpdate();
+        this.epoch = null;
+        BaseEventHandlerNode newChild = initialChild.reactivate();
+        if (newChild == null) {
+            // all handlers removed themselves for good
+            this.deactivated = true;
+            return;
+        }
+        Logger.debug("Reactivating instrumentation for " + newChild.getClass().getTypeName() + " / " + this + " @ " + context.getInstrumentedNode());
+        this.child = insert(newChild);
+        this.deactivated = false;
+        // executions in progress started while deactivated and have no pending post events
+        this.hasOnEnter = 0;
+    }
 }
@@ -0,0 +1,91 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * Sampling of the events of an analysis: for every instrumented node, the handlers run for
+ * <code>burst</code> consecutive executions out of every <code>rate</code> executions. A rate of 1
+ * disables sampling.
+ */
+public final class SamplingConfig {
+    public static final SamplingConfig NONE = new SamplingConfig(1, 1);
+
+    private final int rate;
+    private final int burst;
+
+    private SamplingConfig(int rate, int burst) {
+        this.rate = rate;
+        this.burst = burst;
+    }
+
+    /**
+     * @param rate the sampling period, i.e., 1 in rate executions is sampled
+     * @param burst the number of consecutive executions sampled in every period
+     * @return the sampling config, exits if the values are invalid
+     */
+    public static SamplingConfig create(int rate, int burst) {
+        if (rate < 1 || burst < 1 || burst > rate) {
+            Logger.error("Invalid sampling config: rate " + rate + ", burst " + burst + " (expected 1 <= burst <= rate)");
+            System.exit(-1);
+        }
+        return rate == 1 ? NONE : new SamplingConfig(rate, burst);
+    }
+
+    /**
+     * @return the sampling config set by --nodeprof.SampleRate and --nodeprof.SampleBurst
+     */
+    public static SamplingConfig getDefault() {
+        if (GlobalConfiguration.SAMPLE_RATE <= 1) {
+            return NONE;
+        }
+        return create(GlobalConfiguration.SAMPLE_RATE, GlobalConfiguration.SAMPLE_BURST);
+    }
+
+    public boolean isEnabled() {
+        return rate > 1;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SamplingConfig)) {
+            return false;
+        }
+        SamplingConfig other = (SamplingConfig) obj;
+        return rate == other.rate && burst == other.burst;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * rate + burst;
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled() ? burst + "/" + rate : "none";
+    }
+}
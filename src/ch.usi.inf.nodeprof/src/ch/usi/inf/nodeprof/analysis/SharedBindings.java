@@ -0,0 +1,420 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.WeakHashMap;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.instrumentation.EventBinding;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNodeFactory;
+import com.oracle.truffle.api.instrumentation.InstrumentableNode;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter.SourcePredicate;
+import com.oracle.truffle.api.instrumentation.StandardTags;
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.js.nodes.instrumentation.JSTags.InputNodeTag;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFilterSourceList.ScopeEnum;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.handlers.MultiEventHandler;
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * The event bindings shared by all analyses.
+ *
+ * Every analysisReady call registers its handler factories here. The registrations with the same
+ * sampling are merged into a group with one binding per tag group (one per tag in
+ * SEPARATE_FACTORY_TAGS, one for the other tags with inputs and one for the other tags without
+ * inputs), and the handlers of all analyses for a node are combined with a MultiEventHandler. Every
+ * instrumented node thus gets a single ProfilerExecutionEventNode per group, which saves the inputs
+ * only once, however many analyses are loaded.
+ *
+ * The bindings of a group are only recreated as long as they have not created any event node, so
+ * adding or removing a registration never resets the instrumentation of the other analyses (e.g.,
+ * their deactivated handlers, sampling counters or pending post events). A registration added later
+ * gets a new group, and a removed registration is switched off with its attached switch, which the
+ * handlers check in addition to the switch of their tag. The bindings of a group are only disposed
+ * once all its registrations are removed.
+ */
+final class SharedBindings {
+
+    /**
+     * the handler factories of one analysisReady call
+     */
+    static final class Registration {
+        final AnalysisFilterBase sourceFilter;
+        final SamplingConfig sampling;
+        final InstrumentationSwitch.PerTag switches;
+        final HashMap<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> handlerMapping;
+        // switched off while the registration is detached
+        final InstrumentationSwitch attachedSwitch;
+        boolean attached = true;
+        Group group;
+
+        // results of sourceFilter.test for the sources instrumented so far
+        private final WeakHashMap<Source, Boolean> sourceMatches = new WeakHashMap<>();
+
+        Registration(AnalysisFilterBase sourceFilter, SamplingConfig sampling, InstrumentationSwitch.PerTag switches,
+                        HashMap<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> handlerMapping) {
+            this.sourceFilter = sourceFilter;
+            this.sampling = sampling;
+            this.switches = switches;
+            this.handlerMapping = handlerMapping;
+            this.attachedSwitch = new InstrumentationSwitch(switches.getAnalysisName() + ":attached");
+        }
+
+        synchronized boolean testSource(Source source) {
+            Boolean result = sourceMatches.get(source);
+            if (result == null) {
+                result = sourceFilter.test(source);
+                sourceMatches.put(source, result);
+                InstrumentationStatistics.sourceTested(source, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * registrations with the same sampling sharing their bindings
+     */
+    private static final class Group {
+        final SamplingConfig sampling;
+        // in the order of registration, which is also the order of the handlers (with the same
+        // priority) in MultiEventHandlers
+        final ArrayList<Registration> members = new ArrayList<>();
+        // null while the group is not bound
+        ArrayList<EventBinding<?>> bindings = null;
+        // true once the bindings created an event node, the group is not recreated after that
+        volatile boolean instantiated = false;
+
+        Group(SamplingConfig sampling) {
+            this.sampling = sampling;
+        }
+
+        boolean hasAttachedMembers() {
+            for (Registration registration : members) {
+                if (registration.attached) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // tags that require a separate factory for instrumentation
+    private static final ProfiledTagEnum[] SEPARATE_FACTORY_TAGS = {
+                    ProfiledTagEnum.BUILTIN,
+                    ProfiledTagEnum.STATEMENT,
+                    ProfiledTagEnum.EXPRESSION,
+                    ProfiledTagEnum.CF_BRANCH,
+                    ProfiledTagEnum.ROOT,
+                    ProfiledTagEnum.DECLARE
+    };
+
+    private static final WeakHashMap<Instrumenter, SharedBindings> instances = new WeakHashMap<>();
+
+    @TruffleBoundary
+    static synchronized SharedBindings get(Instrumenter instrumenter) {
+        return instances.computeIfAbsent(instrumenter, SharedBindings::new);
+    }
+
+    private final Instrumenter instrumenter;
+
+    /**
+     * all groups in the order of creation
+     */
+    private final ArrayList<Group> groups = new ArrayList<>();
+
+    /**
+     * the groups to rebuild once the instrumentation is started, see DelayedStart
+     */
+    private final LinkedHashSet<Group> pending = new LinkedHashSet<>();
+
+    private SharedBindings(Instrumenter instrumenter) {
+        this.instrumenter = instrumenter;
+    }
+
+    @TruffleBoundary
+    synchronized Registration register(AnalysisFilterBase sourceFilter, SamplingConfig sampling, InstrumentationSwitch.PerTag switches,
+                    HashMap<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> handlerMapping) {
+        Registration registration = new Registration(sourceFilter, sampling, switches, handlerMapping);
+        // join a group of the same sampling only if it can still be recreated for free
+        Group group = null;
+        for (Group candidate : groups) {
+            if (candidate.sampling.equals(sampling) && !candidate.instantiated) {
+                group = candidate;
+            }
+        }
+        if (group == null) {
+            group = new Group(sampling);
+            groups.add(group);
+        }
+        group.members.add(registration);
+        registration.group = group;
+        rebuild(group);
+        return registration;
+    }
+
+    /**
+     * attach or detach the handlers of a registration
+     *
+     * The other registrations of the group keep their event nodes: the handlers of the
+     * registration are switched off (or on again) and the bindings are only disposed once no
+     * registration of the group is attached.
+     *
+     * @return false if the registration is already in the requested state
+     */
+    @TruffleBoundary
+    synchronized boolean setAttached(Registration registration, boolean value) {
+        if (registration.attached == value) {
+            return false;
+        }
+        registration.attached = value;
+        registration.attachedSwitch.setEnabled(value);
+        Group group = registration.group;
+        if (value) {
+            if (group.bindings == null && !pending.contains(group)) {
+                rebuild(group);
+            }
+        } else if (!group.hasAttachedMembers()) {
+            dispose(group);
+        }
+        return true;
+    }
+
+    private synchronized void rebuildPending() {
+        ArrayList<Group> pendingGroups = new ArrayList<>(pending);
+        pending.clear();
+        for (Group group : pendingGroups) {
+            rebuild(group);
+        }
+    }
+
+    private void dispose(Group group) {
+        pending.remove(group);
+        if (group.bindings != null) {
+            for (EventBinding<?> binding : group.bindings) {
+                binding.dispose();
+            }
+            group.bindings = null;
+        }
+        group.instantiated = false;
+    }
+
+    /**
+     * replace the bindings of a group with new ones for its registrations, which must not have
+     * created event nodes yet unless the group is disposed
+     */
+    private void rebuild(Group group) {
+        if (!DelayedStart.isStarted()) {
+            boolean first = pending.isEmpty();
+            pending.add(group);
+            if (first) {
+                DelayedStart.runWhenStarted(this::rebuildPending);
+            }
+            return;
+        }
+        dispose(group);
+        if (!group.hasAttachedMembers()) {
+            return;
+        }
+
+        // the detached members are included (switched off), so attaching them again is a switch
+        EnumSet<ProfiledTagEnum> tags = EnumSet.noneOf(ProfiledTagEnum.class);
+        for (Registration registration : group.members) {
+            tags.addAll(registration.handlerMapping.keySet());
+        }
+        Registration[] members = group.members.toArray(new Registration[0]);
+        SourcePredicate anySourceFilter = source -> {
+            for (Registration registration : members) {
+                if (registration.testSource(source)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+        SourceSectionFilter inputFilter = SourceSectionFilter.newBuilder().tagIs(StandardTags.ExpressionTag.class, InputNodeTag.class).build();
+        ArrayList<EventBinding<?>> result = new ArrayList<>();
+
+        for (ProfiledTagEnum tag : SEPARATE_FACTORY_TAGS) {
+            if (tags.contains(tag)) {
+                SourcePredicate sourcePredicate = tag.equals(ProfiledTagEnum.BUILTIN) ? AnalysisFilterSourceList.getFilter(ScopeEnum.builtin) : anySourceFilter;
+                SourceSectionFilter filter = SourceSectionFilter.newBuilder().tagIs(tag.getTag()).sourceIs(sourcePredicate).build();
+
+                result.add(instrumenter.attachExecutionEventFactory(
+                                filter,
+                                tag.getExpectedNumInputs() == 0 ? null : inputFilter,
+                                new ExecutionEventNodeFactory() {
+                                    @TruffleBoundary
+                                    public ExecutionEventNode create(EventContext context) {
+                                        InstrumentableNode instrumentedNode = (InstrumentableNode) context.getInstrumentedNode();
+                                        if (instrumentedNode.hasTag(tag.getTag())) {
+                                            return createAndSimplifyExecutionEventNode(context, tag, members, group);
+                                        } else {
+                                            return new ExecutionEventNode() {
+                                            };
+                                        }
+                                    }
+                                }));
+            }
+        }
+
+        // tags without inputs get no input filter, which avoids wrapping their input nodes
+        EnumSet<ProfiledTagEnum> withInputs = EnumSet.noneOf(ProfiledTagEnum.class);
+        EnumSet<ProfiledTagEnum> withoutInputs = EnumSet.noneOf(ProfiledTagEnum.class);
+        for (ProfiledTagEnum tag : tags) {
+            if (!isSeparate(tag)) {
+                (tag.getExpectedNumInputs() == 0 ? withoutInputs : withInputs).add(tag);
+            }
+        }
+        attachCombinedFactory(result, withInputs, inputFilter, anySourceFilter, members, group);
+        attachCombinedFactory(result, withoutInputs, null, anySourceFilter, members, group);
+        group.bindings = result;
+    }
+
+    /**
+     * attach one factory for several tags, assuming that a node has at most one of them
+     *
+     * @param inputFilter filter for the input events, or null
+     */
+    private void attachCombinedFactory(ArrayList<EventBinding<?>> result, EnumSet<ProfiledTagEnum> combinedTags, SourceSectionFilter inputFilter, SourcePredicate anySourceFilter,
+                    Registration[] members, Group group) {
+        if (combinedTags.isEmpty()) {
+            return;
+        }
+        ArrayList<Class<?>> definedTags = new ArrayList<>();
+        for (ProfiledTagEnum tag : combinedTags) {
+            definedTags.add(tag.getTag());
+        }
+        SourceSectionFilter eventFilter = SourceSectionFilter.newBuilder().tagIs(definedTags.toArray(new Class<?>[0])).sourceIs(anySourceFilter).build();
+
+        result.add(instrumenter.attachExecutionEventFactory(
+                        eventFilter,
+                        inputFilter,
+                        new ExecutionEventNodeFactory() {
+
+                            @Override
+                            @TruffleBoundary
+                            public ExecutionEventNode create(EventContext context) {
+                                int count = 0;
+                                InstrumentableNode instrumentedNode = (InstrumentableNode) context.getInstrumentedNode();
+                                ProfiledTagEnum nodeTag = null;
+                                for (ProfiledTagEnum tag : combinedTags) {
+                                    if (instrumentedNode.hasTag(tag.getTag())) {
+                                        count += 1;
+                                        if (nodeTag == null) {
+                                            nodeTag = tag;
+                                        }
+                                    }
+                                }
+                                // a node should never have two tags the same time(except
+                                // for the built-in)
+                                if (count > 1) {
+                                    Logger.error("a node has more than 1 profiling tags!!");
+                                    String tagNames = "";
+                                    for (ProfiledTagEnum tag : combinedTags) {
+                                        if (instrumentedNode.hasTag(tag.getTag())) {
+                                            tagNames += tag.getTag().getSimpleName() + " ";
+                                        }
+                                    }
+                                    Logger.error(context.getInstrumentedSourceSection(), context.getInstrumentedNode().getClass().getName() + " has tags: " + tagNames);
+                                }
+
+                                assert (count <= 1);
+                                if (nodeTag != null) {
+                                    try {
+                                        return createAndSimplifyExecutionEventNode(context, nodeTag, members, group);
+                                    } catch (Exception exception) {
+                                        exception.printStackTrace();
+                                    }
+                                }
+                                // if there is no handler for this node, return an empty
+                                // ExecutionEventNode which should bring zero overhead after
+                                // compilation
+                                return new ExecutionEventNode() {
+                                };
+                            }
+
+                        }));
+    }
+
+    private static boolean isSeparate(ProfiledTagEnum tag) {
+        return Arrays.asList(SEPARATE_FACTORY_TAGS).contains(tag);
+    }
+
+    /**
+     * @return true if the handlers of the registration apply to the tag in the source
+     */
+    private static boolean matches(Registration registration, ProfiledTagEnum tag, Source source) {
+        if (!registration.handlerMapping.containsKey(tag)) {
+            return false;
+        }
+        if (tag == ProfiledTagEnum.BUILTIN) {
+            // builtins are instrumented independently of the source filter
+            return true;
+        }
+        if (!registration.testSource(source)) {
+            return false;
+        }
+        return isSeparate(tag) || registration.sourceFilter.testTag(source, tag);
+    }
+
+    /**
+     * create the ExecutionEventNode with the handlers of all the registrations for the node
+     *
+     * @return a ProfilerExecutionEventNode or an empty ExecutionEventNode
+     */
+    @TruffleBoundary
+    private static ExecutionEventNode createAndSimplifyExecutionEventNode(EventContext context, ProfiledTagEnum key, Registration[] members, Group group) {
+        group.instantiated = true;
+        Source source = context.getInstrumentedSourceSection().getSource();
+        ArrayList<BaseEventHandlerNode> handlers = new ArrayList<>();
+        for (Registration registration : members) {
+            if (!matches(registration, key, source)) {
+                continue;
+            }
+            for (AnalysisFactory<BaseEventHandlerNode> factory : registration.handlerMapping.get(key)) {
+                BaseEventHandlerNode handler = factory.create(context);
+                if (handler != null) {
+                    handler.setInstrumentationSwitch(registration.switches.get(key), registration.attachedSwitch);
+                    handlers.add(handler);
+                    InstrumentationStatistics.handlerCreated(registration.switches.getAnalysisName());
+                }
+            }
+        }
+        BaseEventHandlerNode handler;
+        if (handlers.isEmpty()) {
+            return new ExecutionEventNode() {
+            };
+        } else if (handlers.size() == 1) {
+            handler = handlers.get(0);
+        } else {
+            handler = MultiEventHandler.create(key, handlers.toArray(new BaseEventHandlerNode[0]));
+        }
+        InstrumentationStatistics.nodeInstrumented(source);
+        return new ProfilerExecutionEventNode(key, context, handler, group.sampling);
+    }
+}
@@ -36,6 +36,8 @@ import com.oracle.truffle.js.runtime.builtins.JSFunction;
 import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 import com.oracle.truffle.js.runtime.objects.Undefined;
 
+import ch.usi.inf.nodeprof.analysis.DeoptimizationTracker;
+import ch.usi.inf.nodeprof.analysis.InstrumentationSwitch;
 import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
 import ch.usi.inf.nodeprof.utils.Logger;
 import ch.usi.inf.nodeprof.utils.SourceMapping;
@@ -51,6 +53,16 @@ public abstract class BaseEventHandlerNode extends Node {
     @CompilationFinal private boolean noReturnSlot = false;
     @CompilationFinal private boolean deactivated = false;
 
+    /**
+     * switch of the analysis and tag the handler belongs to, see InstrumentationSwitch
+     */
+    @CompilationFinal private InstrumentationSwitch instrumentationSwitch = InstrumentationSwitch.ALWAYS_ON;
+
+    /**
+     * switched off while the analysis is detached but its shared instrumentation is kept
+     */
+    @CompilationFinal private InstrumentationSwitch attachedSwitch = InstrumentationSwitch.ALWAYS_ON;
+
     public Object getReturnValueFromFrameOrDefault(VirtualFrame frame, Object defaultValue) {
         // cache the frame slot for the return value
         if (returnSlot == -1 && !noReturnSlot) {
@@ -255,6 +267,17 @@ public abstract class BaseEventHandlerNode extends Node {
 
     public abstract int expectedNumInputs();
 
+    /**
+     * Handlers that only read some of their inputs override this, so that the other inputs are
+     * not saved in the frame.
+     *
+     * @param index the index of an input below expectedNumInputs()
+     * @return true if the handler reads the input
+     */
+    public boolean usesInput(@SuppressWarnings("unused") int index) {
+        return true;
+    }
+
     @SuppressWarnings("unused")
     public Object onUnwind(VirtualFrame frame, Object info) {
         return null;
@@ -301,9 +324,49 @@ public abstract class BaseEventHandlerNode extends Node {
 
     public void deactivate() {
         CompilerAsserts.neverPartOfCompilation();
+        if (!deactivated) {
+            DeoptimizationTracker.recordInvalidation(context);
+        }
         deactivated = true;
     }
 
+    /**
+     * @param value the switch of the analysis and tag the handler was created for
+     * @param attached the switch of the registration the handler was created for
+     */
+    public void setInstrumentationSwitch(InstrumentationSwitch value, InstrumentationSwitch attached) {
+        CompilerAsserts.neverPartOfCompilation();
+        this.instrumentationSwitch = value;
+        this.attachedSwitch = attached;
+    }
+
+    /**
+     * @return false if the events of the handler are switched off
+     */
+    public boolean isSwitchedOn() {
+        return instrumentationSwitch.isEnabled() && attachedSwitch.isEnabled();
+    }
+
+    /**
+     * @return true if the handler (or one of its children) was deactivated with
+     *         {@link #deactivate()}
+     */
+    public boolean hasDeactivatedHandlers() {
+        return deactivated;
+    }
+
+    /**
+     * Undoes {@link #deactivate()} when the site is reactivated.
+     *
+     * @return the handler to use after the reactivation, i.e., <code>this</code>, or
+     *         <code>null</code> if the handler removed itself for good
+     */
+    public BaseEventHandlerNode reactivate() {
+        CompilerAsserts.neverPartOfCompilation();
+        deactivated = false;
+        return wantsToUpdateHandler();
+    }
+
     private static boolean isModuleInvocation(Object[] args) {
         if (args.length != 7) {
             return false;
@@ -21,6 +21,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.ListIterator;
 
+import com.oracle.truffle.api.CompilerAsserts;
 import com.oracle.truffle.api.CompilerDirectives;
 import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
@@ -32,6 +33,12 @@ import ch.usi.inf.nodeprof.ProfiledTagEnum;
 public class MultiEventHandler extends BaseSingleTagEventHandler {
 
     @Children final BaseEventHandlerNode[] handlers;
+
+    /**
+     * false once a handler wants to be updated, the MultiEventHandler is then replaced by the
+     * ProfilerExecutionEventNode unless it reached --nodeprof.MaxHandlerUpdates. In that case, the
+     * deactivated handlers are skipped here.
+     */
     @CompilationFinal boolean noChildHandlerUpdate = true;
 
     /**
@@ -55,8 +62,18 @@ public class MultiEventHandler extends BaseSingleTagEventHandler {
     @ExplodeLoop
     public void executePre(VirtualFrame frame, Object[] inputs) throws Exception {
         for (BaseEventHandlerNode handler : handlers) {
+            if (!handler.isSwitchedOn() || handler.hasDeactivatedHandlers()) {
+                continue;
+            }
             handler.executePre(frame, inputs);
-            noChildHandlerUpdate = noChildHandlerUpdate && (handler.wantsToUpdateHandler() == handler);
+            checkChildUpdate(handler);
+        }
+    }
+
+    private void checkChildUpdate(BaseEventHandlerNode handler) {
+        if (noChildHandlerUpdate && handler.wantsToUpdateHandler() != handler) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            noChildHandlerUpdate = false;
         }
     }
 
@@ -103,12 +120,63 @@ public class MultiEventHandler extends BaseSingleTagEventHandler {
         }
     }
 
+    @Override
+    @ExplodeLoop
+    public boolean usesInput(int index) {
+        for (BaseEventHandlerNode handler : handlers) {
+            if (handler.usesInput(index)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * the handlers are switched individually
+     */
+    @Override
+    public boolean isSwitchedOn() {
+        return true;
+    }
+
+    @Override
+    public boolean hasDeactivatedHandlers() {
+        for (BaseEventHandlerNode handler : handlers) {
+            if (handler.hasDeactivatedHandlers()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public BaseEventHandlerNode reactivate() {
+        CompilerAsserts.neverPartOfCompilation();
+        ArrayList<BaseEventHandlerNode> newHandlers = new ArrayList<>();
+        for (BaseEventHandlerNode handler : handlers) {
+            BaseEventHandlerNode reactivated = handler.reactivate();
+            if (reactivated != null) {
+                newHandlers.add(reactivated);
+            }
+        }
+        if (newHandlers.size() > 1) {
+            return new MultiEventHandler(this.tag, newHandlers.toArray(new BaseEventHandlerNode[0]));
+        } else if (newHandlers.size() == 1) {
+            return newHandlers.get(0);
+        } else {
+            return null;
+        }
+    }
+
     @Override
     @ExplodeLoop
     public void executePost(VirtualFrame frame, Object result, Object[] inputs) throws Exception {
         for (BaseEventHandlerNode handler : handlers) {
+            if (!handler.isSwitchedOn() || handler.hasDeactivatedHandlers()) {
+                continue;
+            }
             handler.executePost(frame, result, inputs);
-            noChildHandlerUpdate = noChildHandlerUpdate && (handler.wantsToUpdateHandler() == handler);
+            checkChildUpdate(handler);
         }
     }
 
@@ -116,7 +184,9 @@ public class MultiEventHandler extends BaseSingleTagEventHandler {
     @Override
     public void executeExceptional(VirtualFrame frame, Throwable exception) throws Exception {
         for (BaseEventHandlerNode handler : handlers) {
-            handler.executeExceptional(frame, exception);
+            if (handler.isSwitchedOn() && !handler.hasDeactivatedHandlers()) {
+                handler.executeExceptional(frame, exception);
+            }
         }
     }
 
@@ -124,7 +194,9 @@ public class MultiEventHandler extends BaseSingleTagEventHandler {
     @ExplodeLoop
     public void executeExceptionalCtrlFlow(VirtualFrame frame, Throwable exception, Object[] inputs) throws Exception {
         for (BaseEventHandlerNode handler : handlers) {
-            handler.executeExceptionalCtrlFlow(frame, exception, inputs);
+            if (handler.isSwitchedOn() && !handler.hasDeactivatedHandlers()) {
+                handler.executeExceptionalCtrlFlow(frame, exception, inputs);
+            }
         }
     }
 
@@ -0,0 +1,347 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.jalangi;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
+import ch.usi.inf.nodeprof.utils.Logger;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+
+/**
+ * Time spent in the Jalangi callbacks (see --nodeprof.CallbackTiming).
+ *
+ * Every callback call is counted, one in (TIMING_MASK + 1) calls is timed and the average time of
+ * the timed calls is extrapolated to all calls. The timed and the untimed calls are counted
+ * separately, so a location called only a few times (whose first, cold call is timed) is not
+ * extrapolated beyond its number of calls. Times are attributed to the callback name (e.g.,
+ * getField) and to the location of the event, and reported at exit sorted by time.
+ */
+public final class CallbackTiming {
+
+    /**
+     * one in (TIMING_MASK + 1) callback calls is timed
+     */
+    public static final int TIMING_MASK = 15;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * number of entries logged when no --nodeprof.CallbackTimingFile is given
+     */
+    private static final int TOP_ENTRIES = 10;
+
+    /**
+     * callback names, indexed by callback id
+     */
+    private static final ArrayList<String> callbackNames = new ArrayList<>();
+    private static long[] callbackCalls = new long[16];
+    private static long[] callbackTimed = new long[16];
+    private static long[] callbackNanos = new long[16];
+
+    /**
+     * per-location counters indexed by site: twice the SourceMapping index of the IID, plus one
+     * for post callbacks. Grown when more handlers are created; as for HitCountSupport, concurrent
+     * updates are not synchronized. The nanos are the measured times of the timed calls.
+     */
+    private static long[] siteCalls = new long[INITIAL_CAPACITY];
+    private static long[] siteTimed = new long[INITIAL_CAPACITY];
+    private static long[] siteNanos = new long[INITIAL_CAPACITY];
+
+    /**
+     * callback id + 1 of the timed calls of every site, 0 if unknown and MIXED_CALLBACKS if the
+     * handlers of several callbacks share the IID of the site
+     */
+    private static int[] siteCallback = new int[INITIAL_CAPACITY];
+    private static final int MIXED_CALLBACKS = -1;
+
+    // largest site seen so far
+    private static int maxSite = 0;
+
+    /**
+     * measured (not extrapolated) times of the timed calls, bucket i counts the times in [2^i,
+     * 2^(i+1)) nanoseconds
+     */
+    private static final long[] latencies = new long[Long.SIZE];
+
+    /**
+     * @param name the callback name, e.g., getFieldPre
+     * @return the id of the callback, -1 for a null name
+     */
+    @TruffleBoundary
+    public static synchronized int registerCallback(String name) {
+        if (name == null) {
+            return -1;
+        }
+        int id = callbackNames.indexOf(name);
+        if (id < 0) {
+            id = callbackNames.size();
+            callbackNames.add(name);
+            if (id >= callbackCalls.length) {
+                callbackCalls = Arrays.copyOf(callbackCalls, callbackCalls.length * 2);
+                callbackTimed = Arrays.copyOf(callbackTimed, callbackTimed.length * 2);
+                callbackNanos = Arrays.copyOf(callbackNanos, callbackNanos.length * 2);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @param iid the IID of the instrumented node
+     * @return the site of the pre callback of the node, the post callback uses the next one
+     */
+    @TruffleBoundary
+    public static synchronized int registerSite(int iid) {
+        int site = 2 * SourceMapping.getIndexForIID(iid);
+        if (site + 1 >= siteCalls.length) {
+            int length = Math.max(site + 2, siteCalls.length * 2);
+            siteCalls = Arrays.copyOf(siteCalls, length);
+            siteTimed = Arrays.copyOf(siteTimed, length);
+            siteNanos = Arrays.copyOf(siteNanos, length);
+            siteCallback = Arrays.copyOf(siteCallback, length);
+        }
+        maxSite = Math.max(maxSite, site + 1);
+        return site;
+    }
+
+    /**
+     * count an untimed callback call
+     */
+    public static void count(int site, int callback) {
+        long[] calls = siteCalls;
+        if (site < calls.length) {
+            calls[site]++;
+        }
+        long[] cbCalls = callbackCalls;
+        if (callback >= 0 && callback < cbCalls.length) {
+            cbCalls[callback]++;
+        }
+    }
+
+    /**
+     * count a timed callback call, its time is extrapolated to the untimed ones in the report
+     */
+    public static void record(int site, int callback, long nanos) {
+        latencies[63 - Long.numberOfLeadingZeros(nanos | 1)]++;
+        long[] calls = siteCalls;
+        long[] timed = siteTimed;
+        long[] times = siteNanos;
+        int[] callbacks = siteCallback;
+        if (site < calls.length && site < timed.length && site < times.length && site < callbacks.length) {
+            calls[site]++;
+            timed[site]++;
+            times[site] += nanos;
+            int previous = callbacks[site];
+            callbacks[site] = previous == 0 || previous == callback + 1 ? callback + 1 : MIXED_CALLBACKS;
+        }
+        long[] cbCalls = callbackCalls;
+        long[] cbTimed = callbackTimed;
+        long[] cbTimes = callbackNanos;
+        if (callback >= 0 && callback < cbCalls.length && callback < cbTimed.length && callback < cbTimes.length) {
+            cbCalls[callback]++;
+            cbTimed[callback]++;
+            cbTimes[callback] += nanos;
+        }
+    }
+
+    @TruffleBoundary
+    public static synchronized void reset() {
+        Arrays.fill(callbackCalls, 0);
+        Arrays.fill(callbackTimed, 0);
+        Arrays.fill(callbackNanos, 0);
+        Arrays.fill(siteCalls, 0);
+        Arrays.fill(siteTimed, 0);
+        Arrays.fill(siteNanos, 0);
+        Arrays.fill(siteCallback, 0);
+        Arrays.fill(latencies, 0);
+    }
+
+    /**
+     * @return the measured time of the timed calls extrapolated to all calls
+     */
+    private static long extrapolate(long nanos, long calls, long timed) {
+        return timed == 0 ? 0 : (long) ((double) nanos * calls / timed);
+    }
+
+    /**
+     * @param percentile e.g. 99 for the 99th percentile
+     * @return the estimated percentile of the callback latency in nanoseconds (interpolated within
+     *         the power-of-two buckets), or 0 if no call was timed
+     */
+    @TruffleBoundary
+    public static double getLatencyPercentile(double percentile) {
+        long[] buckets = latencies.clone();
+        long total = 0;
+        for (long count : buckets) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        double rank = total * percentile / 100.0;
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] > 0 && seen + buckets[i] >= rank) {
+                double low = i == 0 ? 0 : Math.pow(2, i);
+                return low + (Math.pow(2, i + 1) - low) * (rank - seen) / buckets[i];
+            }
+            seen += buckets[i];
+        }
+        return Math.pow(2, buckets.length);
+    }
+
+    private static final class Entry {
+        final String callback;
+        final int iid;
+        final long calls;
+        final long nanos;
+
+        Entry(String callback, int iid, long calls, long nanos) {
+            this.callback = callback;
+            this.iid = iid;
+            this.calls = calls;
+            this.nanos = nanos;
+        }
+
+        String getLocation() {
+            return iid == 0 ? "" : String.valueOf(SourceMapping.getLocationForIID(iid));
+        }
+    }
+
+    private static String getCallbackName(int id) {
+        return id >= 0 && id < callbackNames.size() ? callbackNames.get(id) : "unknown";
+    }
+
+    private static ArrayList<Entry> getCallbackEntries() {
+        ArrayList<Entry> result = new ArrayList<>();
+        for (int id = 0; id < callbackNames.size(); id++) {
+            if (callbackCalls[id] > 0) {
+                result.add(new Entry(callbackNames.get(id), 0, callbackCalls[id], extrapolate(callbackNanos[id], callbackCalls[id], callbackTimed[id])));
+            }
+        }
+        result.sort(Comparator.comparingLong((Entry e) -> e.nanos).reversed());
+        return result;
+    }
+
+    private static ArrayList<Entry> getSiteEntries() {
+        ArrayList<Entry> result = new ArrayList<>();
+        for (int site = 2; site <= maxSite; site++) {
+            if (siteCalls[site] > 0) {
+                long nanos = extrapolate(siteNanos[site], siteCalls[site], siteTimed[site]);
+                result.add(new Entry(siteCallback[site] == MIXED_CALLBACKS ? "mixed" : getCallbackName(siteCallback[site] - 1), SourceMapping.getIIDAt(site / 2), siteCalls[site], nanos));
+            }
+        }
+        result.sort(Comparator.comparingLong((Entry e) -> e.nanos).reversed());
+        return result;
+    }
+
+    private static double share(long nanos, long total) {
+        return total == 0 ? 0 : nanos * 100.0 / total;
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static void writeJSON(PrintStream out, long total, ArrayList<Entry> callbacks, ArrayList<Entry> sites) {
+        out.println("{");
+        out.println("  \"sampling\": " + (TIMING_MASK + 1) + ",");
+        out.println("  \"totalNanos\": " + total + ",");
+        out.println("  \"callbacks\": [");
+        for (int i = 0; i < callbacks.size(); i++) {
+            Entry e = callbacks.get(i);
+            out.printf(Locale.ROOT, "    {\"callback\": %s, \"calls\": %d, \"nanos\": %d, \"share\": %.2f}%s%n", quote(e.callback), e.calls, e.nanos, share(e.nanos, total),
+                            i + 1 < callbacks.size() ? "," : "");
+        }
+        out.println("  ],");
+        out.println("  \"sites\": [");
+        for (int i = 0; i < sites.size(); i++) {
+            Entry e = sites.get(i);
+            out.printf(Locale.ROOT, "    {\"iid\": %d, \"location\": %s, \"callback\": %s, \"calls\": %d, \"nanos\": %d, \"share\": %.2f}%s%n", e.iid, quote(e.getLocation()), quote(e.callback), e.calls,
+                            e.nanos, share(e.nanos, total), i + 1 < sites.size() ? "," : "");
+        }
+        out.println("  ]");
+        out.println("}");
+    }
+
+    private static void writeCSV(PrintStream out, long total, ArrayList<Entry> callbacks, ArrayList<Entry> sites) {
+        out.println("kind,callback,iid,location,calls,nanos,share");
+        for (Entry e : callbacks) {
+            out.printf(Locale.ROOT, "callback,%s,,,%d,%d,%.2f%n", e.callback, e.calls, e.nanos, share(e.nanos, total));
+        }
+        for (Entry e : sites) {
+            out.printf(Locale.ROOT, "site,%s,%d,%s,%d,%d,%.2f%n", e.callback, e.iid, quote(e.getLocation()), e.calls, e.nanos, share(e.nanos, total));
+        }
+    }
+
+    /**
+     * write the callback times to --nodeprof.CallbackTimingFile, or log the most expensive
+     * callbacks and locations if no file is given
+     */
+    @TruffleBoundary
+    public static synchronized void dump() {
+        if (!GlobalConfiguration.CALLBACK_TIMING || callbackNames.isEmpty()) {
+            return;
+        }
+        ArrayList<Entry> callbacks = getCallbackEntries();
+        ArrayList<Entry> sites = getSiteEntries();
+        long total = 0;
+        for (Entry e : callbacks) {
+            total += e.nanos;
+        }
+        String file = GlobalConfiguration.CALLBACK_TIMING_FILE;
+        if (file.isEmpty()) {
+            Logger.info(String.format(Locale.ROOT, "Estimated time in Jalangi callbacks: %.3f ms", total / 1e6));
+            for (int i = 0; i < callbacks.size() && i < TOP_ENTRIES; i++) {
+                Entry e = callbacks.get(i);
+                Logger.info(String.format(Locale.ROOT, "  %-20s %10d calls %10.3f ms %6.2f%%", e.callback, e.calls, e.nanos / 1e6, share(e.nanos, total)));
+            }
+            Logger.info("Most expensive locations:");
+            for (int i = 0; i < sites.size() && i < TOP_ENTRIES; i++) {
+                Entry e = sites.get(i);
+                Logger.info(String.format(Locale.ROOT, "  %-20s %10d calls %10.3f ms %6.2f%% %s", e.callback, e.calls, e.nanos / 1e6, share(e.nanos, total), e.getLocation()));
+            }
+            return;
+        }
+        try (PrintStream out = new PrintStream(file)) {
+            if (file.endsWith(".csv")) {
+                writeCSV(out, total, callbacks, sites);
+            } else {
+                writeJSON(out, total, callbacks, sites);
+            }
+        } catch (FileNotFoundException e) {
+            Logger.error("cannot write callback times to " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.jalangi;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.interop.InteropException;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.strings.TruffleString;
+import com.oracle.truffle.js.runtime.JSRealm;
+import com.oracle.truffle.js.runtime.builtins.JSArray;
+import com.oracle.truffle.js.runtime.objects.Undefined;
+
+import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * Java-side buffer of compact event records for a Jalangi analysis running in batch mode, i.e.,
+ * added with <code>J$.addAnalysis(analysis, {batch: N})</code>.
+ *
+ * Instead of calling into JS for every event, the callback nodes append a record to this buffer and
+ * the analysis' <code>onBatch(events)</code> function is called once the buffer is full (and when
+ * the execution ends). The events array passed to JS is flat: each record takes
+ * <code>2 + valuesPerRecord</code> slots, i.e., the iid, the name of the callback and the first
+ * <code>valuesPerRecord</code> callback arguments following the iid.
+ */
+public final class EventBuffer {
+    public static final String ON_BATCH = "onBatch";
+
+    // offset of the first callback argument after the iid in the arguments of a CallbackNode call
+    private static final int FIRST_VALUE = 3;
+
+    /**
+     * the buffers of all batch-mode analyses by analysis name, see getFillLevels
+     */
+    private static final LinkedHashMap<String, EventBuffer> buffers = new LinkedHashMap<>();
+
+    private final Object jsAnalysis;
+    private final int valuesPerRecord;
+
+    private final int[] iids;
+    private final TruffleString[] callbacks;
+    private final Object[] values;
+
+    // number of records currently in the buffer
+    private int size = 0;
+
+    /**
+     * @param name name of the analysis, for the metrics
+     */
+    @TruffleBoundary
+    public EventBuffer(String name, Object jsAnalysis, int capacity, int valuesPerRecord) {
+        this.jsAnalysis = jsAnalysis;
+        this.valuesPerRecord = valuesPerRecord;
+        this.iids = new int[capacity];
+        this.callbacks = new TruffleString[capacity];
+        this.values = new Object[capacity * valuesPerRecord];
+        synchronized (buffers) {
+            buffers.put(name, this);
+        }
+    }
+
+    /**
+     * Appends one event record.
+     *
+     * @param iid the iid of the instrumented node
+     * @param callback name of the Jalangi callback
+     * @param args the arguments as passed to the CallbackNode, i.e., receiver, function, iid, ...
+     * @return true if the buffer is full and must be flushed
+     */
+    public boolean record(int iid, TruffleString callback, Object[] args) {
+        int index = size;
+        iids[index] = iid;
+        callbacks[index] = callback;
+        int base = index * valuesPerRecord;
+        for (int i = 0; i < valuesPerRecord; i++) {
+            int argIndex = FIRST_VALUE + i;
+            values[base + i] = argIndex < args.length ? args[argIndex] : Undefined.instance;
+        }
+        size = index + 1;
+        return size == iids.length;
+    }
+
+    /**
+     * Passes all buffered records to the analysis' onBatch function and empties the buffer.
+     */
+    @TruffleBoundary
+    public void flush() {
+        if (size == 0) {
+            return;
+        }
+        int stride = 2 + valuesPerRecord;
+        Object[] events = new Object[size * stride];
+        for (int i = 0; i < size; i++) {
+            int pos = i * stride;
+            events[pos] = iids[i];
+            events[pos + 1] = callbacks[i];
+            System.arraycopy(values, i * valuesPerRecord, events, pos + 2, valuesPerRecord);
+        }
+        // release references to the recorded values before calling into JS
+        Arrays.fill(callbacks, 0, size, null);
+        Arrays.fill(values, 0, size * valuesPerRecord, null);
+        size = 0;
+
+        Object eventArray = JSArray.createConstantObjectArray(GlobalObjectCache.getInstance().getJSContext(), JSRealm.get(null), events);
+        try {
+            InteropLibrary.getFactory().getUncached().invokeMember(jsAnalysis, ON_BATCH, eventArray);
+        } catch (InteropException e) {
+            Logger.error("call to " + ON_BATCH + " failed: " + e.getMessage());
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return iids.length;
+    }
+
+    /**
+     * @return the fill level (0 to 1) of the buffer of every batch-mode analysis. The sizes are
+     *         read without synchronization, i.e., from another thread they are approximate.
+     */
+    @TruffleBoundary
+    public static Map<String, Double> getFillLevels() {
+        LinkedHashMap<String, Double> result = new LinkedHashMap<>();
+        synchronized (buffers) {
+            for (Map.Entry<String, EventBuffer> entry : buffers.entrySet()) {
+                EventBuffer buffer = entry.getValue();
+                result.put(entry.getKey(), (double) buffer.size / buffer.capacity());
+            }
+        }
+        return result;
+    }
+}
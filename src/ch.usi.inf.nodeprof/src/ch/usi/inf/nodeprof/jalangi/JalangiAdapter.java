@@ -19,6 +19,7 @@ package ch.usi.inf.nodeprof.jalangi;
 import static ch.usi.inf.nodeprof.utils.ObjectHelper.setConfigProperty;
 
 import java.util.Arrays;
+import java.util.Map;
 
 import org.graalvm.options.OptionDescriptor;
 import org.graalvm.options.OptionValues;
@@ -37,14 +38,19 @@ import com.oracle.truffle.js.runtime.JSRealm;
 import com.oracle.truffle.js.runtime.JSRuntime;
 import com.oracle.truffle.js.runtime.Strings;
 import com.oracle.truffle.js.runtime.builtins.JSArray;
+import com.oracle.truffle.js.runtime.builtins.JSArrayBuffer;
 import com.oracle.truffle.js.runtime.builtins.JSOrdinary;
 import com.oracle.truffle.js.runtime.objects.JSObject;
 import com.oracle.truffle.js.runtime.objects.Undefined;
 
 import ch.usi.inf.nodeprof.NodeProfCLI;
+import ch.usi.inf.nodeprof.analysis.DelayedStart;
+import ch.usi.inf.nodeprof.analysis.InstrumentationEpochs;
+import ch.usi.inf.nodeprof.analysis.InstrumentationStatistics;
 import ch.usi.inf.nodeprof.analysis.ProfilerExecutionEventNode;
 import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
 import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
+import ch.usi.inf.nodeprof.utils.HitCountSupport;
 import ch.usi.inf.nodeprof.utils.Logger;
 import ch.usi.inf.nodeprof.utils.SourceMapping;
 
@@ -64,7 +70,15 @@ public class JalangiAdapter implements TruffleObject {
         ONREADY("onReady"),
         REGISTERCALLBACK("registerCallback"),
         INSTRUMENTATIONSWITCH("instrumentationSwitch"),
-        GETCONFIG("getConfig");
+        GETCONFIG("getConfig"),
+        FLUSHBATCH("flushBatch"),
+        GETHITCOUNTS("getHitCounts"),
+        REACTIVATE("reactivate"),
+        REACTIVATEALL("reactivateAll"),
+        DETACHANALYSIS("detachAnalysis"),
+        REATTACHANALYSIS("reattachAnalysis"),
+        GETINSTRUMENTATIONSTATS("getInstrumentationStats"),
+        ATTACHNOW("attachNow");
 
         final String name;
 
@@ -153,6 +167,25 @@ public class JalangiAdapter implements TruffleObject {
         return obj;
     }
 
+    /**
+     * convert the nested maps of InstrumentationStatistics to JS objects
+     */
+    @TruffleBoundary
+    private static JSObject toJSObject(Map<String, Object> map) {
+        JSObject obj = JSOrdinary.create(GlobalObjectCache.getInstance().getJSContext(), JSRealm.get(null));
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> nested = (Map<String, Object>) value;
+                setConfigProperty(obj, entry.getKey(), toJSObject(nested));
+            } else {
+                setConfigProperty(obj, entry.getKey(), ((Number) value).doubleValue());
+            }
+        }
+        return obj;
+    }
+
     @ExportMessage
     @TruffleBoundary
     final Object invokeMember(String identifier, Object[] arguments) throws ArityException, UnsupportedTypeException {
@@ -240,6 +273,10 @@ public class JalangiAdapter implements TruffleObject {
                 break;
             }
             case INSTRUMENTATIONSWITCH: {
+                if (arguments.length >= 2 && arguments[1] != Undefined.instance) {
+                    // switch for one analysis (and optionally some of its callbacks)
+                    return this.getNodeProfJalangi().setAnalysisEnabled(arguments[1], JSRuntime.toBoolean(arguments[0]), arguments.length >= 3 ? arguments[2] : null);
+                }
                 if (arguments.length >= 1) {
                     if (arguments[0] != null) {
                         boolean value = JSRuntime.toBoolean(arguments[0]);
@@ -251,6 +288,43 @@ public class JalangiAdapter implements TruffleObject {
             case GETCONFIG: {
                 return getConfig();
             }
+            case FLUSHBATCH: {
+                if (checkArguments(1, arguments, identifier)) {
+                    this.getNodeProfJalangi().flushBatch(arguments[0]);
+                }
+                break;
+            }
+            case GETHITCOUNTS: {
+                // an ArrayBuffer to be viewed as Float64Array in jalangi.js
+                return JSArrayBuffer.createArrayBuffer(GlobalObjectCache.getInstance().getJSContext(), JSRealm.get(null), HitCountSupport.getCountsAsDoubles());
+            }
+            case REACTIVATE: {
+                if (checkArguments(1, arguments, identifier)) {
+                    return InstrumentationEpochs.reactivate(convertIID(arguments[0]));
+                }
+                break;
+            }
+            case REACTIVATEALL: {
+                return InstrumentationEpochs.reactivateAll();
+            }
+            case DETACHANALYSIS: {
+                if (checkArguments(1, arguments, identifier)) {
+                    return this.getNodeProfJalangi().detachAnalysis(arguments[0]);
+                }
+                break;
+            }
+            case REATTACHANALYSIS: {
+                if (checkArguments(1, arguments, identifier)) {
+                    return this.getNodeProfJalangi().reattachAnalysis(arguments[0]);
+                }
+                break;
+            }
+            case GETINSTRUMENTATIONSTATS: {
+                return toJSObject(InstrumentationStatistics.getStatistics());
+            }
+            case ATTACHNOW: {
+                return DelayedStart.start("on J$.attachNow()");
+            }
 
             default: {
                 Logger.warning("Unsupported NodeProf-Jalangi operation " + identifier);
@@ -45,10 +45,14 @@ import java.util.Map;
 import java.util.Set;
 
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.interop.InteropLibrary;
 import com.oracle.truffle.api.interop.UnsupportedTypeException;
 import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 
 import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisBindings;
+import ch.usi.inf.nodeprof.analysis.InstrumentationSwitch;
+import ch.usi.inf.nodeprof.jalangi.factory.AbstractFactory;
 import ch.usi.inf.nodeprof.jalangi.factory.AsyncRootFactory;
 import ch.usi.inf.nodeprof.jalangi.factory.AwaitFactory;
 import ch.usi.inf.nodeprof.jalangi.factory.BinaryFactory;
@@ -99,6 +103,17 @@ public class JalangiAnalysis {
      */
     final NodeProfJalangi instrument;
 
+    /**
+     * switches for the events of this analysis, toggled with J$.enableAnalysis(analysis, callbacks)
+     * and J$.disableAnalysis(analysis, callbacks)
+     */
+    private final InstrumentationSwitch.PerTag switches;
+
+    /**
+     * event bindings of the analysis, used to remove it with J$.removeAnalysis(analysis)
+     */
+    private AnalysisBindings bindings = null;
+
     @SuppressWarnings("serial") public static final Map<String, EnumSet<ProfiledTagEnum>> callbackMap = Collections.unmodifiableMap(new HashMap<String, EnumSet<ProfiledTagEnum>>() {
         {
             // function calls
@@ -171,13 +186,77 @@ public class JalangiAnalysis {
 
     public static final Set<String> ignoredCallbacks = Collections.unmodifiableSet(
                     // endExecution is a high-level event handled by the jalangi.js script
-                    new HashSet<>(Arrays.asList("endExecution")));
+                    // onBatch receives the buffered events in batch mode
+                    new HashSet<>(Arrays.asList("endExecution", EventBuffer.ON_BATCH)));
+
+    /**
+     * event buffer if the analysis runs in batch mode, null otherwise
+     */
+    private EventBuffer batchBuffer = null;
+
+    /**
+     * number of Jalangi analyses created so far, to name them in the instrumentation statistics
+     */
+    private static int numAnalyses = 0;
 
     @TruffleBoundary
     public JalangiAnalysis(NodeProfJalangi nodeprofJalangi, Object jsAnalysis) {
         this.instrument = nodeprofJalangi;
         this.jsAnalysis = jsAnalysis;
         this.callbacks = new HashMap<>();
+        this.switches = new InstrumentationSwitch.PerTag("jalangi#" + (++numAnalyses));
+    }
+
+    public InstrumentationSwitch.PerTag getSwitches() {
+        return switches;
+    }
+
+    /**
+     * @return the bindings of the analysis once it is ready, null before
+     */
+    public AnalysisBindings getBindings() {
+        return bindings;
+    }
+
+    void setBindings(AnalysisBindings bindings) {
+        this.bindings = bindings;
+    }
+
+    /**
+     * Enables batch mode: events are buffered and delivered with onBatch instead of calling the
+     * individual callbacks, which then only select the events to record.
+     *
+     * @param capacity number of events to buffer before calling onBatch
+     * @param valuesPerRecord number of callback arguments (after the iid) stored per event
+     */
+    @TruffleBoundary
+    public void enableBatching(int capacity, int valuesPerRecord) {
+        if (!InteropLibrary.getFactory().getUncached().isMemberInvocable(jsAnalysis, EventBuffer.ON_BATCH)) {
+            Logger.warning("Batch mode requested but analysis does not define " + EventBuffer.ON_BATCH + ", ignoring");
+            return;
+        }
+        this.batchBuffer = new EventBuffer(switches.getAnalysisName(), jsAnalysis, capacity, valuesPerRecord);
+    }
+
+    public EventBuffer getBatchBuffer() {
+        return batchBuffer;
+    }
+
+    /**
+     * @param preCallback name of the callback given to the factory as pre callback
+     * @param postCallback name of the callback given to the factory as post callback
+     */
+    private void register(ProfiledTagEnum tag, AbstractFactory factory, String preCallback, String postCallback) {
+        factory.setInstrument(instrument.getNodeProfInstrument());
+        // the names are not looked up from the functions, which can be shared by several callbacks
+        String preName = factory.getPre() == null ? null : preCallback;
+        String postName = factory.getPost() == null ? null : postCallback;
+        if (batchBuffer != null) {
+            factory.enableBatching(batchBuffer, preName, postName);
+        } else if (GlobalConfiguration.CALLBACK_TIMING) {
+            factory.enableTiming(preName, postName);
+        }
+        this.instrument.onCallback(tag, factory);
     }
 
     @TruffleBoundary
@@ -187,113 +266,113 @@ public class JalangiAnalysis {
         }
         if (this.callbacks.containsKey("invokeFunPre") || callbacks.containsKey("invokeFun")) {
             InvokeFactory invokeFactory = new InvokeFactory(this.jsAnalysis, ProfiledTagEnum.INVOKE, callbacks.get("invokeFunPre"), callbacks.get("invokeFun"));
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.INVOKE,
-                            invokeFactory);
+                            invokeFactory, "invokeFunPre", "invokeFun");
             InvokeFactory newFactory = new InvokeFactory(this.jsAnalysis, ProfiledTagEnum.NEW, callbacks.get("invokeFunPre"), callbacks.get("invokeFun"));
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.NEW,
-                            newFactory);
-            this.instrument.onCallback(
+                            newFactory, "invokeFunPre", "invokeFun");
+            register(
                             ProfiledTagEnum.EVAL,
-                            new EvalFactory(this.jsAnalysis, callbacks.get("invokeFunPre"), callbacks.get("invokeFun"), true));
+                            new EvalFactory(this.jsAnalysis, callbacks.get("invokeFunPre"), callbacks.get("invokeFun"), true), "invokeFunPre", "invokeFun");
         }
 
         if (this.callbacks.containsKey("putFieldPre") || callbacks.containsKey("putField")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.PROPERTY_WRITE,
-                            new PutFieldFactory(this.jsAnalysis, callbacks.get("putFieldPre"), callbacks.get("putField")));
-            this.instrument.onCallback(
+                            new PutFieldFactory(this.jsAnalysis, callbacks.get("putFieldPre"), callbacks.get("putField")), "putFieldPre", "putField");
+            register(
                             ProfiledTagEnum.ELEMENT_WRITE,
-                            new PutElementFactory(this.jsAnalysis, callbacks.get("putFieldPre"), callbacks.get("putField")));
+                            new PutElementFactory(this.jsAnalysis, callbacks.get("putFieldPre"), callbacks.get("putField")), "putFieldPre", "putField");
         }
 
         if (this.callbacks.containsKey("getFieldPre") || callbacks.containsKey("getField")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.PROPERTY_READ,
-                            new GetFieldFactory(this.jsAnalysis, callbacks.get("getFieldPre"), callbacks.get("getField")));
-            this.instrument.onCallback(
+                            new GetFieldFactory(this.jsAnalysis, callbacks.get("getFieldPre"), callbacks.get("getField")), "getFieldPre", "getField");
+            register(
                             ProfiledTagEnum.ELEMENT_READ,
-                            new GetElementFactory(this.jsAnalysis, callbacks.get("getFieldPre"), callbacks.get("getField")));
+                            new GetElementFactory(this.jsAnalysis, callbacks.get("getFieldPre"), callbacks.get("getField")), "getFieldPre", "getField");
         }
 
         if (this.callbacks.containsKey("read")) {
-            this.instrument.onCallback(ProfiledTagEnum.VAR_READ, new ReadFactory(
-                            this.jsAnalysis, callbacks.get("read"), false));
-            this.instrument.onCallback(ProfiledTagEnum.PROPERTY_READ, new ReadFactory(
-                            this.jsAnalysis, callbacks.get("read"), true));
+            register(ProfiledTagEnum.VAR_READ, new ReadFactory(
+                            this.jsAnalysis, callbacks.get("read"), false), null, "read");
+            register(ProfiledTagEnum.PROPERTY_READ, new ReadFactory(
+                            this.jsAnalysis, callbacks.get("read"), true), null, "read");
         }
 
         if (this.callbacks.containsKey("write")) {
-            this.instrument.onCallback(ProfiledTagEnum.VAR_WRITE, new WriteFactory(
-                            this.jsAnalysis, callbacks.get("write"), false));
-            this.instrument.onCallback(ProfiledTagEnum.PROPERTY_WRITE,
+            register(ProfiledTagEnum.VAR_WRITE, new WriteFactory(
+                            this.jsAnalysis, callbacks.get("write"), false), null, "write");
+            register(ProfiledTagEnum.PROPERTY_WRITE,
                             new WriteFactory(this.jsAnalysis, callbacks.get("write"),
-                                            true));
+                                            true), null, "write");
         }
 
         if (this.callbacks.containsKey("binaryPre") || this.callbacks.containsKey("binary")) {
-            this.instrument.onCallback(ProfiledTagEnum.BINARY,
+            register(ProfiledTagEnum.BINARY,
                             new BinaryFactory(this.jsAnalysis,
                                             callbacks.get("binaryPre"),
-                                            callbacks.get("binary")));
+                                            callbacks.get("binary")), "binaryPre", "binary");
         }
 
         if (this.callbacks.containsKey("literal")) {
-            this.instrument.onCallback(ProfiledTagEnum.LITERAL, new LiteralFactory(
-                            this.jsAnalysis, callbacks.get("literal")));
+            register(ProfiledTagEnum.LITERAL, new LiteralFactory(
+                            this.jsAnalysis, callbacks.get("literal")), null, "literal");
         }
 
         if (this.callbacks.containsKey("declarePre") || this.callbacks.containsKey("declare")) {
-            this.instrument.onCallback(ProfiledTagEnum.DECLARE, new DeclareFactory(
-                            this.jsAnalysis, callbacks.get("declarePre"), callbacks.get("declare")));
+            register(ProfiledTagEnum.DECLARE, new DeclareFactory(
+                            this.jsAnalysis, callbacks.get("declarePre"), callbacks.get("declare")), "declarePre", "declare");
         }
 
         if (this.callbacks.containsKey("unaryPre") || this.callbacks.containsKey("unary")) {
-            this.instrument.onCallback(ProfiledTagEnum.UNARY,
+            register(ProfiledTagEnum.UNARY,
                             new UnaryFactory(this.jsAnalysis, callbacks.get("unaryPre"),
-                                            callbacks.get("unary")));
+                                            callbacks.get("unary")), "unaryPre", "unary");
         }
 
         if (this.callbacks.containsKey("conditional")) {
-            this.instrument.onCallback(ProfiledTagEnum.CF_BRANCH, new ConditionalFactory(
-                            this.jsAnalysis, callbacks.get("conditional"), false));
-            this.instrument.onCallback(
+            register(ProfiledTagEnum.CF_BRANCH, new ConditionalFactory(
+                            this.jsAnalysis, callbacks.get("conditional"), false), null, "conditional");
+            register(
                             ProfiledTagEnum.BINARY,
-                            new ConditionalFactory(this.jsAnalysis, callbacks.get("conditional"), true));
+                            new ConditionalFactory(this.jsAnalysis, callbacks.get("conditional"), true), null, "conditional");
         }
 
         /*
          * functionEnter/Exit callback: instruments root nodes of functions
          */
         if (this.callbacks.containsKey("functionEnter") || this.callbacks.containsKey("functionExit")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.ROOT,
                             new RootFactory(this.jsAnalysis,
                                             callbacks.get("functionEnter"),
                                             callbacks.get("functionExit"),
-                                            this.instrument.getEnv()));
+                                            this.instrument.getEnv()), "functionEnter", "functionExit");
         }
 
         if (this.callbacks.containsKey("startExpression") || this.callbacks.containsKey("endExpression")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.EXPRESSION,
                             new ExpressionFactory(this.jsAnalysis,
-                                            callbacks.get("startExpression"), callbacks.get("endExpression")));
+                                            callbacks.get("startExpression"), callbacks.get("endExpression")), "startExpression", "endExpression");
         }
 
         if (this.callbacks.containsKey("startStatement") || this.callbacks.containsKey("endStatement")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.STATEMENT,
                             new StatementFactory(this.jsAnalysis,
-                                            callbacks.get("startStatement"), callbacks.get("endStatement")));
+                                            callbacks.get("startStatement"), callbacks.get("endStatement")), "startStatement", "endStatement");
         }
 
         if (this.callbacks.containsKey("builtinEnter") || this.callbacks.containsKey("builtinExit")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.BUILTIN,
                             new BuiltinFactory(this.jsAnalysis,
-                                            callbacks.get("builtinEnter"), callbacks.get("builtinExit"), null));
+                                            callbacks.get("builtinEnter"), callbacks.get("builtinExit"), null), "builtinEnter", "builtinExit");
         }
 
         /*
@@ -302,9 +381,9 @@ public class JalangiAnalysis {
          * Eval not tested
          */
         if (this.callbacks.containsKey("evalPre") || this.callbacks.containsKey("evalPost")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.EVAL,
-                            new EvalFactory(this.jsAnalysis, callbacks.get("evalPre"), callbacks.get("evalPost"), false));
+                            new EvalFactory(this.jsAnalysis, callbacks.get("evalPre"), callbacks.get("evalPost"), false), "evalPre", "evalPost");
         }
 
         /*
@@ -312,32 +391,32 @@ public class JalangiAnalysis {
          * new Function("XXX"); not tested
          */
         if (this.callbacks.containsKey("evalFunctionPre") || this.callbacks.containsKey("evalFunctionPost")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.BUILTIN,
-                            new EvalFunctionFactory(this.jsAnalysis, callbacks.get("evalFunctionPre"), callbacks.get("evalFunctionPost")));
+                            new EvalFunctionFactory(this.jsAnalysis, callbacks.get("evalFunctionPre"), callbacks.get("evalFunctionPost")), "evalFunctionPre", "evalFunctionPost");
         }
 
         if (this.callbacks.containsKey("forObject")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.CF_ROOT,
-                            new ForObjectFactory(this.jsAnalysis, callbacks.get("forObject")));
+                            new ForObjectFactory(this.jsAnalysis, callbacks.get("forObject")), "forObject", null);
         }
 
         /*
          * async function
          */
         if (this.callbacks.containsKey("asyncFunctionEnter") || this.callbacks.containsKey("asyncFunctionExit")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.CF_ROOT,
-                            new AsyncRootFactory(this.jsAnalysis, callbacks.get("asyncFunctionEnter"), callbacks.get("asyncFunctionExit")));
+                            new AsyncRootFactory(this.jsAnalysis, callbacks.get("asyncFunctionEnter"), callbacks.get("asyncFunctionExit")), "asyncFunctionEnter", "asyncFunctionExit");
         }
         /*
          * await callback
          */
         if (this.callbacks.containsKey("awaitPre") || this.callbacks.containsKey("awaitPost")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.CF_BRANCH,
-                            new AwaitFactory(this.jsAnalysis, callbacks.get("awaitPre"), callbacks.get("awaitPost")));
+                            new AwaitFactory(this.jsAnalysis, callbacks.get("awaitPre"), callbacks.get("awaitPost")), "awaitPre", "awaitPost");
         }
 
         /*
@@ -346,18 +425,18 @@ public class JalangiAnalysis {
          * Loop not tested
          */
         if (this.callbacks.containsKey("loopEnter") || this.callbacks.containsKey("loopExit")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.CF_ROOT,
-                            new LoopFactory(this.jsAnalysis, callbacks.get("loopEnter"), callbacks.get("loopExit")));
+                            new LoopFactory(this.jsAnalysis, callbacks.get("loopEnter"), callbacks.get("loopExit")), "loopEnter", "loopExit");
         }
 
         /*
          * _return callback
          */
         if (this.callbacks.containsKey("_return")) {
-            this.instrument.onCallback(
+            register(
                             ProfiledTagEnum.CF_BRANCH,
-                            new ReturnFactory(this.jsAnalysis, callbacks.get("_return")));
+                            new ReturnFactory(this.jsAnalysis, callbacks.get("_return")), "_return", null);
         }
 
         /*
@@ -365,9 +444,9 @@ public class JalangiAnalysis {
          * provides newSource callback. This instrumentation is always enabled but deactivates after
          * its first execution.
          */
-        this.instrument.onCallback(
-                        ProfiledTagEnum.ROOT,
-                        new InitialRootFactory(this.jsAnalysis, callbacks.get("newSource")));
+        InitialRootFactory initialRootFactory = new InitialRootFactory(this.jsAnalysis, callbacks.get("newSource"));
+        initialRootFactory.setInstrument(instrument.getNodeProfInstrument());
+        this.instrument.onCallback(ProfiledTagEnum.ROOT, initialRootFactory);
     }
 
     /**
@@ -16,16 +16,17 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof.jalangi;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 
 import com.oracle.truffle.api.CallTarget;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
-import com.oracle.truffle.api.instrumentation.Instrumenter;
-import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
 import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.InvalidArrayIndexException;
 import com.oracle.truffle.api.interop.TruffleObject;
 import com.oracle.truffle.api.interop.UnknownIdentifierException;
 import com.oracle.truffle.api.interop.UnsupportedMessageException;
@@ -38,10 +39,16 @@ import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 import com.oracle.truffle.js.runtime.objects.Null;
 import com.oracle.truffle.js.runtime.objects.Undefined;
 
+import ch.usi.inf.nodeprof.NodeProfInstrument;
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisBindings;
 import ch.usi.inf.nodeprof.analysis.AnalysisFilterBase;
 import ch.usi.inf.nodeprof.analysis.AnalysisFilterJS;
 import ch.usi.inf.nodeprof.analysis.AnalysisFilterSourceList;
+import ch.usi.inf.nodeprof.analysis.InstrumentationSwitch;
 import ch.usi.inf.nodeprof.analysis.NodeProfAnalysis;
+import ch.usi.inf.nodeprof.analysis.SamplingConfig;
+import ch.usi.inf.nodeprof.jalangi.factory.AbstractFactory;
 import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
 import ch.usi.inf.nodeprof.utils.Logger;
 
@@ -49,12 +56,22 @@ import ch.usi.inf.nodeprof.utils.Logger;
  * The Jalangi implementation in NodeProf
  */
 public class NodeProfJalangi extends NodeProfAnalysis {
+    /**
+     * the instrument of the engine, which provides the callback guards
+     */
+    private final NodeProfInstrument nodeProfInstrument;
+
     @TruffleBoundary
-    public NodeProfJalangi(Instrumenter instrumenter, Env env) {
-        super("jalangi", instrumenter, env);
+    public NodeProfJalangi(NodeProfInstrument nodeProfInstrument) {
+        super("jalangi", nodeProfInstrument.getInstrumenter(), nodeProfInstrument.getEnv());
+        this.nodeProfInstrument = nodeProfInstrument;
         this.jalangiAnalyses = new HashMap<>();
     }
 
+    public NodeProfInstrument getNodeProfInstrument() {
+        return nodeProfInstrument;
+    }
+
     @Override
     @TruffleBoundary
     public Object onLoad() throws Exception {
@@ -109,7 +126,108 @@ public class NodeProfJalangi extends NodeProfAnalysis {
         if (jalangiAnalyses.containsKey(analysis)) {
             jalangiAnalyses.get(analysis).onReady();
         }
-        analysisReady();
+        setBindings(analysis, analysisReady(getFilter(), getSamplingConfig(), getSwitches(analysis)));
+    }
+
+    private void setBindings(Object analysis, AnalysisBindings bindings) {
+        JalangiAnalysis jalangiAnalysis = jalangiAnalyses.get(analysis);
+        if (jalangiAnalysis != null) {
+            jalangiAnalysis.setBindings(bindings);
+        }
+    }
+
+    /**
+     * remove all instrumentation of an analysis, pending batched events are delivered first
+     *
+     * @param analysis the Jalangi analysis object
+     * @return false if the analysis is unknown or already removed
+     */
+    @TruffleBoundary
+    public boolean detachAnalysis(Object analysis) {
+        JalangiAnalysis jalangiAnalysis = jalangiAnalyses.get(analysis);
+        if (jalangiAnalysis == null || jalangiAnalysis.getBindings() == null) {
+            return false;
+        }
+        flushBatch(analysis);
+        return jalangiAnalysis.getBindings().detach();
+    }
+
+    /**
+     * attach an analysis again after detachAnalysis, with its original configuration
+     *
+     * @param analysis the Jalangi analysis object
+     * @return false if the analysis is unknown or not removed
+     */
+    @TruffleBoundary
+    public boolean reattachAnalysis(Object analysis) {
+        JalangiAnalysis jalangiAnalysis = jalangiAnalyses.get(analysis);
+        if (jalangiAnalysis == null || jalangiAnalysis.getBindings() == null) {
+            return false;
+        }
+        return jalangiAnalysis.getBindings().attach();
+    }
+
+    /**
+     * @return the instrumentation switches of a Jalangi analysis object
+     */
+    private InstrumentationSwitch.PerTag getSwitches(Object analysis) {
+        JalangiAnalysis jalangiAnalysis = jalangiAnalyses.get(analysis);
+        return jalangiAnalysis == null ? getSwitches() : jalangiAnalysis.getSwitches();
+    }
+
+    /**
+     * enable or disable the events of one analysis
+     *
+     * @param analysis the Jalangi analysis object
+     * @param value true to enable the events
+     * @param names callback names (e.g. 'invokeFunPre') or tag names (e.g. 'STATEMENT'), either a
+     *            single string or an array, null for all events of the analysis
+     * @return false if the analysis is unknown
+     */
+    @TruffleBoundary
+    public boolean setAnalysisEnabled(Object analysis, boolean value, Object names) {
+        JalangiAnalysis jalangiAnalysis = jalangiAnalyses.get(analysis);
+        if (jalangiAnalysis == null) {
+            Logger.warning("cannot switch the events of an analysis that was not added with J$.addAnalysis");
+            return false;
+        }
+        InstrumentationSwitch.PerTag switches = jalangiAnalysis.getSwitches();
+        if (names == null || names == Undefined.instance || names == Null.instance) {
+            switches.setEnabled(value);
+            return true;
+        }
+        for (String name : toStringList(names)) {
+            EnumSet<ProfiledTagEnum> tags = JalangiAnalysis.callbackMap.get(name);
+            if (tags == null) {
+                try {
+                    tags = EnumSet.of(ProfiledTagEnum.valueOf(name.toUpperCase()));
+                } catch (IllegalArgumentException e) {
+                    Logger.warning("unknown callback or tag name " + name);
+                    continue;
+                }
+            }
+            for (ProfiledTagEnum tag : tags) {
+                switches.get(tag).setEnabled(value);
+            }
+        }
+        return true;
+    }
+
+    private static List<String> toStringList(Object names) {
+        InteropLibrary interop = InteropLibrary.getFactory().getUncached();
+        if (!interop.hasArrayElements(names)) {
+            return Collections.singletonList(names.toString());
+        }
+        ArrayList<String> result = new ArrayList<>();
+        try {
+            long size = interop.getArraySize(names);
+            for (long i = 0; i < size; i++) {
+                result.add(interop.readArrayElement(names, i).toString());
+            }
+        } catch (UnsupportedMessageException | InvalidArrayIndexException e) {
+            Logger.warning("cannot read the callback names: " + e.getMessage());
+        }
+        return result;
     }
 
     @TruffleBoundary
@@ -171,10 +289,70 @@ public class NodeProfJalangi extends NodeProfAnalysis {
      */
     @TruffleBoundary
     public void onReady(Object analysis, TruffleObject configObj) {
+        boolean isPredicate = JSFunction.isJSFunction(configObj);
         if (jalangiAnalyses.containsKey(analysis)) {
+            if (!isPredicate) {
+                parseBatchConfig(jalangiAnalyses.get(analysis), configObj);
+            }
             jalangiAnalyses.get(analysis).onReady();
         }
-        analysisReady(parseFilterConfig(configObj));
+        SamplingConfig sampling = isPredicate ? getSamplingConfig() : parseSamplingConfig(configObj);
+        if (isPredicate || hasSourceConfig(configObj)) {
+            setBindings(analysis, analysisReady(parseFilterConfig(configObj), sampling, getSwitches(analysis)));
+        } else {
+            // config object only sets other options, use the default source filter
+            setBindings(analysis, analysisReady(getFilter(), sampling, getSwitches(analysis)));
+        }
+    }
+
+    /**
+     * @return the sampling set with 'sampleRate' and 'sampleBurst' in the config object, or the
+     *         default sampling
+     */
+    private SamplingConfig parseSamplingConfig(TruffleObject configObj) {
+        Object rate = getProperty(configObj, "sampleRate");
+        Object burst = getProperty(configObj, "sampleBurst");
+        if (rate == null && burst == null) {
+            return getSamplingConfig();
+        }
+        SamplingConfig defaultSampling = getSamplingConfig();
+        return SamplingConfig.create(rate == null ? defaultSampling.getRate() : JSRuntime.toInt32(rate), burst == null ? 1 : JSRuntime.toInt32(burst));
+    }
+
+    private static boolean hasSourceConfig(TruffleObject configObj) {
+        return getProperty(configObj, "internal") != null || getProperty(configObj, "excludes") != null || getProperty(configObj, "includes") != null;
+    }
+
+    /**
+     * enables batch mode if the config object specifies 'batch' (and optionally 'batchValues')
+     */
+    private static void parseBatchConfig(JalangiAnalysis jalangiAnalysis, TruffleObject configObj) {
+        Object batch = getProperty(configObj, "batch");
+        if (batch == null) {
+            return;
+        }
+        int capacity = JSRuntime.toInt32(batch);
+        Object batchValues = getProperty(configObj, "batchValues");
+        int valuesPerRecord = batchValues == null ? 1 : JSRuntime.toInt32(batchValues);
+        if (capacity <= 0 || valuesPerRecord < 0) {
+            Logger.error("Invalid batch config (config: " + JSRuntime.safeToString(configObj) + ")");
+            System.exit(-1);
+        }
+        Logger.debug("Batch mode enabled: " + capacity + " events with " + valuesPerRecord + " value(s) each");
+        jalangiAnalysis.enableBatching(capacity, valuesPerRecord);
+    }
+
+    /**
+     * deliver the events buffered for an analysis in batch mode
+     *
+     * @param analysis the Jalangi analysis object
+     */
+    @TruffleBoundary
+    public void flushBatch(Object analysis) {
+        JalangiAnalysis jalangiAnalysis = jalangiAnalyses.get(analysis);
+        if (jalangiAnalysis != null && jalangiAnalysis.getBatchBuffer() != null) {
+            AbstractFactory.flushBatch(jalangiAnalysis.getBatchBuffer(), nodeProfInstrument.getCallbackGuard());
+        }
     }
 
     @Override
@@ -17,6 +17,7 @@
 package ch.usi.inf.nodeprof.jalangi.factory;
 
 import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.Truffle;
 import com.oracle.truffle.api.interop.InteropLibrary;
@@ -31,6 +32,7 @@ import com.oracle.truffle.js.runtime.GraalJSException;
 import com.oracle.truffle.js.runtime.JSContext;
 import com.oracle.truffle.js.runtime.JSInterruptedExecutionException;
 import com.oracle.truffle.js.runtime.JSRealm;
+import com.oracle.truffle.js.runtime.JSRuntime;
 import com.oracle.truffle.js.runtime.Strings;
 import com.oracle.truffle.js.runtime.builtins.JSAbstractArray;
 import com.oracle.truffle.js.runtime.builtins.JSArray;
@@ -42,8 +44,13 @@ import com.oracle.truffle.js.runtime.objects.Null;
 import com.oracle.truffle.js.runtime.objects.Undefined;
 import com.oracle.truffle.trufflenode.GraalJSAccess;
 
+import ch.usi.inf.nodeprof.NodeProfInstrument;
 import ch.usi.inf.nodeprof.analysis.AnalysisFactory;
 import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.jalangi.CallbackTiming;
+import ch.usi.inf.nodeprof.jalangi.EventBuffer;
+import ch.usi.inf.nodeprof.utils.CallbackGuard;
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
 import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
 import ch.usi.inf.nodeprof.utils.Logger;
 
@@ -58,6 +65,33 @@ public abstract class AbstractFactory implements
 
     protected final String jalangiCallback;
 
+    /**
+     * number of parameters read by the pre/post callback, see getCallbackArity
+     */
+    private final int preArity;
+    private final int postArity;
+
+    /**
+     * in batch mode, events are recorded into this buffer instead of calling pre/post
+     */
+    @CompilationFinal private EventBuffer batchBuffer = null;
+    @CompilationFinal private TruffleString preName = null;
+    @CompilationFinal private TruffleString postName = null;
+
+    /**
+     * the instrument of the engine the factory is registered with, which provides the callback
+     * guards, see setInstrument
+     */
+    @CompilationFinal private NodeProfInstrument nodeProfInstrument = null;
+
+    /**
+     * callback ids for --nodeprof.CallbackTiming, see CallbackTiming
+     */
+    @CompilationFinal private int preTimingId = -1;
+    @CompilationFinal private int postTimingId = -1;
+
+    private static final String ARITY_PROPERTY = "nodeprofArity";
+
     private static final TruffleString YIELD_STR = Strings.constant("yield");
     private static final TruffleString EXCEPTION_STR = Strings.constant("exception");
     private static final TruffleString UNKNOWN_EXCEPTION_STR = Strings.constant("Unknown Exception");
@@ -118,6 +152,92 @@ public abstract class AbstractFactory implements
         this.jalangiAnalysis = jalangiAnalysis;
         this.pre = pre;
         this.post = post;
+        this.preArity = getCallbackArity(pre);
+        this.postArity = getCallbackArity(post);
+    }
+
+    /**
+     * The number of parameters a callback reads is declared explicitly with a numeric
+     * <code>nodeprofArity</code> property of the callback function or, with
+     * --nodeprof.CallbackArity, taken from its <code>length</code>. Otherwise, all parameters are
+     * assumed to be used (e.g., callbacks may read <code>arguments</code>).
+     *
+     * @param cb the callback function
+     * @return the number of parameters the callback reads
+     */
+    @TruffleBoundary
+    private static int getCallbackArity(DynamicObject cb) {
+        Object arity = readCBProperty(cb, ARITY_PROPERTY);
+        if (!(arity instanceof Number) && GlobalConfiguration.CALLBACK_ARITY) {
+            arity = readCBProperty(cb, "length");
+        }
+        if (arity instanceof Number) {
+            return Math.max(0, JSRuntime.toInt32(arity));
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Expensive callback arguments (e.g., the arguments array of a call) should only be computed if
+     * the callback reads them, otherwise Undefined is passed in their place.
+     *
+     * @param paramIndex index of the parameter in the callback, e.g., 0 for the iid
+     * @return true if the pre callback reads the parameter
+     */
+    protected boolean preReads(int paramIndex) {
+        // batch mode records the arguments without calling the callback
+        return batchBuffer != null || paramIndex < preArity;
+    }
+
+    /**
+     * @param paramIndex index of the parameter in the callback, e.g., 0 for the iid
+     * @return true if the post callback reads the parameter
+     */
+    protected boolean postReads(int paramIndex) {
+        return batchBuffer != null || paramIndex < postArity;
+    }
+
+    /**
+     * Switches the factory to batch mode. Must be called before any handler is created.
+     *
+     * @param buffer the buffer of the Jalangi analysis
+     * @param preCallback name of the pre callback (or null)
+     * @param postCallback name of the post callback (or null)
+     */
+    @TruffleBoundary
+    public void enableBatching(EventBuffer buffer, String preCallback, String postCallback) {
+        this.batchBuffer = buffer;
+        this.preName = preCallback == null ? null : Strings.fromJavaString(preCallback);
+        this.postName = postCallback == null ? null : Strings.fromJavaString(postCallback);
+    }
+
+    /**
+     * Sets the instrument of the engine the factory is registered with. Must be called before any
+     * handler is created.
+     */
+    public void setInstrument(NodeProfInstrument instrument) {
+        this.nodeProfInstrument = instrument;
+    }
+
+    /**
+     * Attributes the time spent in the pre/post callbacks to their names (see
+     * --nodeprof.CallbackTiming). Must be called before any handler is created.
+     *
+     * @param preCallback name of the pre callback (or null)
+     * @param postCallback name of the post callback (or null)
+     */
+    @TruffleBoundary
+    public void enableTiming(String preCallback, String postCallback) {
+        this.preTimingId = CallbackTiming.registerCallback(preCallback);
+        this.postTimingId = CallbackTiming.registerCallback(postCallback);
+    }
+
+    public JSDynamicObject getPre() {
+        return pre;
+    }
+
+    public JSDynamicObject getPost() {
+        return post;
     }
 
     /**
@@ -157,35 +277,62 @@ public abstract class AbstractFactory implements
     }
 
     /**
-     * nestedControl is a tag to avoid instrumentation of the Jalangi analysis being called
-     * recursively
-     */
-    private static boolean nestedControl = false;
-
-    /**
+     * Delivers the buffered events of a batch-mode analysis. As for regular callbacks, events
+     * triggered while onBatch runs are not recorded.
      *
-     * @return true to proceed with the call or false to skip the call
+     * @param buffer the buffer to flush
+     * @param guard the callback guard of the current context and thread
      */
-    private static boolean beforeCall() {
-        if (nestedControl) {
-            return false;
+    @TruffleBoundary
+    public static void flushBatch(EventBuffer buffer, CallbackGuard guard) {
+        if (guard.enter()) {
+            try {
+                buffer.flush();
+            } finally {
+                guard.exit();
+            }
         }
-        nestedControl = true;
-        return true;
-    }
-
-    /**
-     * afterCall to reset nestedControl
-     */
-    private static void afterCall() {
-        nestedControl = false;
-        return;
     }
 
     public class CallbackNode extends Node {
-        @Node.Child DirectCallNode preCall = pre == null ? null : Truffle.getRuntime().createDirectCallNode(JSFunction.getCallTarget(pre));
-        @Node.Child DirectCallNode postCall = post == null ? null : Truffle.getRuntime().createDirectCallNode(JSFunction.getCallTarget(post));
+        // no call nodes are needed in batch mode
+        @Node.Child DirectCallNode preCall = pre == null || batchBuffer != null ? null : Truffle.getRuntime().createDirectCallNode(JSFunction.getCallTarget(pre));
+        @Node.Child DirectCallNode postCall = post == null || batchBuffer != null ? null : Truffle.getRuntime().createDirectCallNode(JSFunction.getCallTarget(post));
         @Child private InteropLibrary interopLibrary = InteropLibrary.getFactory().createDispatched(3);
+        private final NodeProfInstrument instrument = nodeProfInstrument;
+
+        public CallbackNode() {
+            assert nodeProfInstrument != null : "factory not registered";
+        }
+
+        /**
+         * --nodeprof.CallbackTiming: site of the handler (see CallbackTiming.registerSite) and
+         * counter selecting the timed calls
+         */
+        @CompilationFinal private int timingSite = -1;
+        private int timingCounter = 0;
+
+        private Object call(DirectCallNode callNode, BaseEventHandlerNode handler, boolean isPost, Object[] args) {
+            if (!GlobalConfiguration.CALLBACK_TIMING) {
+                return callNode.call(args);
+            }
+            if (timingSite < 0) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                timingSite = CallbackTiming.registerSite(handler.getSourceIID());
+            }
+            int site = isPost ? timingSite + 1 : timingSite;
+            int callback = isPost ? postTimingId : preTimingId;
+            if ((timingCounter++ & CallbackTiming.TIMING_MASK) != 0) {
+                CallbackTiming.count(site, callback);
+                return callNode.call(args);
+            }
+            long start = System.nanoTime();
+            try {
+                return callNode.call(args);
+            } finally {
+                CallbackTiming.record(site, callback, System.nanoTime() - start);
+            }
+        }
 
         private void checkDeactivate(Object ret, BaseEventHandlerNode handler) {
             if (ret != null && ret != Undefined.instance && JSObject.isJSObject(ret)) {
@@ -201,12 +348,25 @@ public abstract class AbstractFactory implements
             }
         }
 
+        private void record(BaseEventHandlerNode handler, TruffleString callback, Object[] args) {
+            CallbackGuard guard = instrument.getCallbackGuard();
+            if (!guard.isInCallback() && batchBuffer.record(handler.getSourceIID(), callback, args)) {
+                flushBatch(batchBuffer, guard);
+            }
+        }
+
         public void preCall(BaseEventHandlerNode handler, Object... args) {
             assertNoStringLeak(args);
             if (pre != null) {
-                if (beforeCall()) {
+                if (batchBuffer != null) {
+                    record(handler, preName, args);
+                } else {
+                    CallbackGuard guard = instrument.getCallbackGuard();
+                    if (!guard.enter()) {
+                        return;
+                    }
                     try {
-                        Object ret = preCall.call(args);
+                        Object ret = call(preCall, handler, false, args);
                         checkDeactivate(ret, handler);
                     } catch (JSInterruptedExecutionException e) {
                         Logger.error("execution cancelled probably due to timeout");
@@ -217,7 +377,7 @@ public abstract class AbstractFactory implements
                             throw e;
                         }
                     } finally {
-                        afterCall();
+                        guard.exit();
                     }
                 }
             }
@@ -226,14 +386,20 @@ public abstract class AbstractFactory implements
         public void postCall(BaseEventHandlerNode handler, Object... args) {
             assertNoStringLeak(args);
             if (post != null) {
-                if (beforeCall()) {
+                if (batchBuffer != null) {
+                    record(handler, postName, args);
+                } else {
+                    CallbackGuard guard = instrument.getCallbackGuard();
+                    if (!guard.enter()) {
+                        return;
+                    }
                     try {
-                        Object ret = postCall.call(args);
+                        Object ret = call(postCall, handler, true, args);
                         checkDeactivate(ret, handler);
                     } catch (JSInterruptedExecutionException e) {
                         Logger.error("execution cancelled probably due to timeout");
                     } finally {
-                        afterCall();
+                        guard.exit();
                     }
                 }
             }
@@ -0,0 +1,70 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2023, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.jalangi.factory;
+
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.InvalidArrayIndexException;
+import com.oracle.truffle.api.interop.TruffleObject;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+
+/**
+ * Read-only array-like view of the arguments of a call, backed by the saved inputs or the frame
+ * arguments without copying them (see --nodeprof.ArgumentsView).
+ *
+ * JS code can read <code>length</code> and the elements, but the view is not a JS array, e.g.,
+ * Array.isArray returns false. Analyses that keep the arguments beyond the callback or need a real
+ * array should copy them.
+ */
+@ExportLibrary(InteropLibrary.class)
+final class ArgumentsView implements TruffleObject {
+    static final ArgumentsView EMPTY = new ArgumentsView(new Object[0], 0, 0);
+
+    private final Object[] values;
+    private final int offset;
+    private final int length;
+
+    ArgumentsView(Object[] values, int offset, int length) {
+        this.values = values;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @SuppressWarnings("static-method")
+    @ExportMessage
+    boolean hasArrayElements() {
+        return true;
+    }
+
+    @ExportMessage
+    long getArraySize() {
+        return length;
+    }
+
+    @ExportMessage
+    boolean isArrayElementReadable(long index) {
+        return index >= 0 && index < length;
+    }
+
+    @ExportMessage
+    Object readArrayElement(long index) throws InvalidArrayIndexException {
+        if (!isArrayElementReadable(index)) {
+            throw InvalidArrayIndexException.create(index);
+        }
+        return values[offset + (int) index];
+    }
+}
@@ -47,7 +47,9 @@ public class BuiltinFactory extends AbstractFactory {
             @Override
             public void executePre(VirtualFrame frame, Object[] inputs) throws InteropException {
                 if (isTarget && pre != null) {
-                    cbNode.preCall(this, jalangiAnalysis, pre, getBuiltinName(), getFunction(frame), getReceiver(frame), makeArgs.executeArguments(getArguments(frame)));
+                    cbNode.preCall(this, jalangiAnalysis, pre, getBuiltinName(), getFunction(frame),
+                                    preReads(2) ? getReceiver(frame) : Undefined.instance,
+                                    preReads(3) ? makeArgs.executeArguments(getArguments(frame)) : Undefined.instance);
                 }
             }
 
@@ -55,7 +57,9 @@ public class BuiltinFactory extends AbstractFactory {
             public void executePost(VirtualFrame frame, Object result,
                             Object[] inputs) throws InteropException {
                 if (isTarget && post != null) {
-                    cbNode.postCall(this, jalangiAnalysis, post, this.getBuiltinName(), getFunction(frame), getReceiver(frame), makeArgs.executeArguments(getArguments(frame)),
+                    cbNode.postCall(this, jalangiAnalysis, post, this.getBuiltinName(), getFunction(frame),
+                                    postReads(2) ? getReceiver(frame) : Undefined.instance,
+                                    postReads(3) ? makeArgs.executeArguments(getArguments(frame)) : Undefined.instance,
                                     convertResult(result),
                                     createWrappedException(null));
                 }
@@ -64,7 +68,9 @@ public class BuiltinFactory extends AbstractFactory {
             @Override
             public void executeExceptional(VirtualFrame frame, Throwable exception) throws InteropException {
                 if (isTarget && post != null) {
-                    cbNode.postCall(this, jalangiAnalysis, post, this.getBuiltinName(), getFunction(frame), getReceiver(frame), makeArgs.executeArguments(getArguments(frame)),
+                    cbNode.postCall(this, jalangiAnalysis, post, this.getBuiltinName(), getFunction(frame),
+                                    postReads(2) ? getReceiver(frame) : Undefined.instance,
+                                    postReads(3) ? makeArgs.executeArguments(getArguments(frame)) : Undefined.instance,
                                     Undefined.instance,
                                     createWrappedException(null));
 
@@ -20,6 +20,7 @@ import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.instrumentation.EventContext;
 import com.oracle.truffle.api.interop.InteropException;
 import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
+import com.oracle.truffle.js.runtime.objects.Undefined;
 
 import ch.usi.inf.nodeprof.ProfiledTagEnum;
 import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
@@ -41,11 +42,20 @@ public class InvokeFactory extends AbstractFactory {
             @Child MakeArgumentArrayNode makeArgs = MakeArgumentArrayNodeGen.create(pre == null ? post : pre, getOffSet(), 0);
             @Child CallbackNode cbNode = new CallbackNode();
 
+            private final boolean readsArguments = (pre != null && preReads(3)) || (post != null && postReads(3));
+
+            @Override
+            public boolean usesInput(int index) {
+                // the call arguments are only saved if the callbacks read them
+                return index < getOffSet() || readsArguments;
+            }
+
             @Override
             public void executePre(VirtualFrame frame, Object[] inputs) throws InteropException {
                 if (pre != null) {
                     // TODO Jalangi's function iid/sid are set to be 0/0
-                    cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getFunction(inputs), getReceiver(inputs), makeArgs.executeArguments(inputs), isNew(), isInvoke(), 0, 0);
+                    cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getFunction(inputs), getReceiver(inputs),
+                                    preReads(3) ? makeArgs.executeArguments(inputs) : Undefined.instance, isNew(), isInvoke(), 0, 0);
                 }
             }
 
@@ -54,7 +64,8 @@ public class InvokeFactory extends AbstractFactory {
                             Object[] inputs) throws InteropException {
                 if (post != null) {
                     // TODO Jalangi's function iid/sid are set to be 0/0
-                    cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), getFunction(inputs), getReceiver(inputs), makeArgs.executeArguments(inputs), convertResult(result), isNew(),
+                    cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), getFunction(inputs), getReceiver(inputs),
+                                    postReads(3) ? makeArgs.executeArguments(inputs) : Undefined.instance, convertResult(result), isNew(),
                                     isInvoke(), 0, 0);
                 }
             }
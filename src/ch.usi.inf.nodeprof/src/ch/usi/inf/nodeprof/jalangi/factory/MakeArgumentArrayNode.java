@@ -25,10 +25,12 @@ import com.oracle.truffle.js.runtime.JSRealm;
 import com.oracle.truffle.js.runtime.builtins.JSArray;
 import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
 import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
 
 /**
- * create a JS array including the arguments for invoke/functionEnter
+ * create a JS array including the arguments for invoke/functionEnter (or an ArgumentsView with
+ * --nodeprof.ArgumentsView)
  */
 public abstract class MakeArgumentArrayNode extends Node {
     private final JSContext jsContext;
@@ -75,6 +77,18 @@ public abstract class MakeArgumentArrayNode extends Node {
         return arguments != null && (input.length == (arguments.length + offset + tillEnd));
     }
 
+    protected static boolean useView() {
+        return GlobalConfiguration.ARGUMENTS_VIEW;
+    }
+
+    @Specialization(guards = "useView()")
+    public Object executeView(Object[] input) {
+        if (notEnoughArgs(input)) {
+            return ArgumentsView.EMPTY;
+        }
+        return new ArgumentsView(input, offset, input.length - offset - tillEnd);
+    }
+
     /**
      * @param input the inputs from savedInputValues
      */
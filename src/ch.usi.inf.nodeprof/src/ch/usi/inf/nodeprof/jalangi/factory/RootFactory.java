@@ -51,7 +51,10 @@ public class RootFactory extends AbstractFactory {
                 }
 
                 if (!this.isBuiltin && pre != null) {
-                    cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getFunction(frame), getReceiver(frame), makeArgs.executeArguments(getArguments(frame)));
+                    // functionEnter(iid, f, dis, args)
+                    cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getFunction(frame),
+                                    preReads(2) ? getReceiver(frame) : Undefined.instance,
+                                    preReads(3) ? makeArgs.executeArguments(getArguments(frame)) : Undefined.instance);
                 }
             }
 
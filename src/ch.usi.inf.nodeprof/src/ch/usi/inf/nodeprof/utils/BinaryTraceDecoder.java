@@ -0,0 +1,222 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Offline decoder for traces written by BinaryTraceWriter. It prints the same human-readable view as
+ * the text mode of --nodeprof.TraceEvents.
+ *
+ * Usage: <code>BinaryTraceDecoder trace-file</code> (or <code>mx trace-decode trace-file</code>)
+ */
+public final class BinaryTraceDecoder {
+
+    private static final class NodeInfo {
+        final String nodeClass;
+        final String tags;
+        final String attributes;
+
+        NodeInfo(String nodeClass, String tags, String attributes) {
+            this.nodeClass = nodeClass;
+            this.tags = tags;
+            this.attributes = attributes;
+        }
+    }
+
+    private static final NodeInfo UNKNOWN_NODE = new NodeInfo("?", "?", "");
+
+    private final DataInputStream in;
+    private final PrintStream out;
+    private final ArrayList<String> dictionary = new ArrayList<>();
+    // by node id, see BinaryTraceWriter.node
+    private final HashMap<Integer, NodeInfo> nodes = new HashMap<>();
+    private int depth = 0;
+
+    public BinaryTraceDecoder(InputStream in, PrintStream out) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.out = out;
+    }
+
+    /**
+     * Decodes the whole trace.
+     *
+     * @throws IOException if the trace cannot be read or is not a valid trace
+     */
+    public void decode() throws IOException {
+        byte[] magic = new byte[BinaryTraceWriter.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, BinaryTraceWriter.MAGIC)) {
+            throw new IOException("not a NodeProf binary trace");
+        }
+        byte version = in.readByte();
+        if (version != BinaryTraceWriter.VERSION) {
+            throw new IOException("unsupported trace version " + version);
+        }
+        while (true) {
+            int kind = in.read();
+            if (kind < 0) {
+                break;
+            }
+            decodeRecord((byte) kind);
+        }
+        out.flush();
+    }
+
+    private void decodeRecord(byte kind) throws IOException {
+        switch (kind) {
+            case BinaryTraceWriter.DICT: {
+                int id = readVarInt();
+                String str = readString();
+                assert id == dictionary.size();
+                dictionary.add(str);
+                break;
+            }
+            case BinaryTraceWriter.NODE: {
+                int nodeId = readVarInt();
+                // the IID is not needed for the textual view
+                readVarInt();
+                nodes.put(nodeId, new NodeInfo(lookup(readVarInt()), lookup(readVarInt()), lookup(readVarInt())));
+                break;
+            }
+            case BinaryTraceWriter.ENTER: {
+                NodeInfo node = readEventNode();
+                print(RawEventsTracingSupport.formatEnter(node.tags, node.nodeClass, node.attributes));
+                depth++;
+                break;
+            }
+            case BinaryTraceWriter.INPUT: {
+                NodeInfo node = readEventNode();
+                int inputIndex = readVarInt();
+                int inputCount = readVarInt();
+                String fromClass = lookup(readVarInt());
+                print(RawEventsTracingSupport.formatInput(inputIndex, inputCount, node.tags, node.nodeClass, readValue(), fromClass));
+                break;
+            }
+            case BinaryTraceWriter.RETURN: {
+                NodeInfo node = readEventNode();
+                depth--;
+                print(RawEventsTracingSupport.formatReturn(node.tags, node.nodeClass, readValue(), node.attributes));
+                break;
+            }
+            case BinaryTraceWriter.RETURN_EXCEPTIONAL: {
+                NodeInfo node = readEventNode();
+                depth--;
+                print(RawEventsTracingSupport.formatReturnExceptional(node.tags, node.nodeClass, lookup(readVarInt()), node.attributes));
+                break;
+            }
+            default:
+                throw new IOException("invalid record kind " + kind);
+        }
+    }
+
+    private void print(String line) {
+        out.printf("[%s] %s\n", "i", RawEventsTracingSupport.indent(depth) + line);
+    }
+
+    private NodeInfo readEventNode() throws IOException {
+        int nodeId = readVarInt();
+        // the tag byte is not needed for the textual view
+        in.readUnsignedByte();
+        NodeInfo node = nodes.get(nodeId);
+        return node == null ? UNKNOWN_NODE : node;
+    }
+
+    private String readValue() throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case BinaryTraceWriter.VAL_NULL:
+                return "null";
+            case BinaryTraceWriter.VAL_FALSE:
+                return "false";
+            case BinaryTraceWriter.VAL_TRUE:
+                return "true";
+            case BinaryTraceWriter.VAL_INT:
+                return Integer.toString((int) unZigZag(readVarLong()));
+            case BinaryTraceWriter.VAL_LONG:
+                return Long.toString(unZigZag(readVarLong()));
+            case BinaryTraceWriter.VAL_DOUBLE:
+                return Double.toString(in.readDouble());
+            case BinaryTraceWriter.VAL_STRING:
+                return readString();
+            case BinaryTraceWriter.VAL_FUNCTION:
+                return RawEventsTracingSupport.describeFunction(lookup(readVarInt()));
+            case BinaryTraceWriter.VAL_OBJECT:
+                return RawEventsTracingSupport.OBJECT_DESCRIPTION;
+            case BinaryTraceWriter.VAL_OTHER:
+                return lookup(readVarInt());
+            default:
+                throw new IOException("invalid value type " + type);
+        }
+    }
+
+    private String lookup(int id) throws IOException {
+        if (id < 0 || id >= dictionary.size()) {
+            throw new IOException("invalid dictionary id " + id);
+        }
+        return dictionary.get(id);
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[readVarInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarInt() throws IOException {
+        return (int) readVarLong();
+    }
+
+    private long readVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("truncated varint");
+            }
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: BinaryTraceDecoder trace-file");
+            System.exit(-1);
+        }
+        try (InputStream in = new FileInputStream(args[0])) {
+            new BinaryTraceDecoder(in, System.out).decode();
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+/**
+ * Writer for the binary event trace (see --nodeprof.TraceFile), decoded by BinaryTraceDecoder.
+ *
+ * The trace starts with {@link #MAGIC} and {@link #VERSION}, followed by records which all start
+ * with a kind byte. Integers are written as (unsigned or zig-zag encoded) LEB128 varints, strings as
+ * varint length plus UTF-8 bytes. Strings that repeat (node classes, tag names, attributes, function
+ * names, etc.) are interned into a dictionary with a {@link #DICT} record the first time they are
+ * used, and each instrumented node is described once with a {@link #NODE} record holding a
+ * sequential node id and its IID. Several nodes can share a source section and thus an IID, so
+ * event records contain the kind, the node id, a tag byte and the encoded values.
+ */
+public final class BinaryTraceWriter {
+    public static final byte[] MAGIC = {'N', 'P', 'T', 'R'};
+    public static final byte VERSION = 2;
+
+    // record kinds
+    public static final byte DICT = 0;
+    public static final byte NODE = 1;
+    public static final byte ENTER = 2;
+    public static final byte INPUT = 3;
+    public static final byte RETURN = 4;
+    public static final byte RETURN_EXCEPTIONAL = 5;
+
+    // value type codes
+    public static final byte VAL_NULL = 0;
+    public static final byte VAL_FALSE = 1;
+    public static final byte VAL_TRUE = 2;
+    public static final byte VAL_INT = 3;
+    public static final byte VAL_LONG = 4;
+    public static final byte VAL_DOUBLE = 5;
+    public static final byte VAL_STRING = 6;
+    public static final byte VAL_FUNCTION = 7;
+    public static final byte VAL_OBJECT = 8;
+    public static final byte VAL_OTHER = 9;
+
+    /**
+     * tag byte used for nodes without any ProfiledTagEnum tag
+     */
+    public static final int NO_TAG = 0xFF;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // enough space for any record except the variable-length strings
+    private static final int MAX_FIXED_RECORD = 64;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final HashMap<String, Integer> dictionary = new HashMap<>();
+    private int nextNodeId = 0;
+
+    @TruffleBoundary
+    public BinaryTraceWriter(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ensure(MAGIC.length + 1);
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+    }
+
+    /**
+     * describe an instrumented node
+     *
+     * @return the node id to pass to the event records of the node
+     */
+    @TruffleBoundary
+    public synchronized int node(int iid, String nodeClass, String tags, String attributes) {
+        int nodeId = nextNodeId++;
+        int classId = intern(nodeClass);
+        int tagsId = intern(tags);
+        int attributesId = intern(attributes);
+        ensure(MAX_FIXED_RECORD);
+        buffer.put(NODE);
+        putVarInt(nodeId);
+        putVarInt(iid);
+        putVarInt(classId);
+        putVarInt(tagsId);
+        putVarInt(attributesId);
+        return nodeId;
+    }
+
+    @TruffleBoundary
+    public synchronized void enter(int nodeId, int tag) {
+        ensure(MAX_FIXED_RECORD);
+        putEventHeader(ENTER, nodeId, tag);
+    }
+
+    @TruffleBoundary
+    public synchronized void input(int nodeId, int tag, int inputIndex, int inputCount, String fromClass, Object value) {
+        int fromId = intern(fromClass);
+        int valueId = internValue(value);
+        ensure(MAX_FIXED_RECORD);
+        putEventHeader(INPUT, nodeId, tag);
+        putVarInt(inputIndex);
+        putVarInt(inputCount);
+        putVarInt(fromId);
+        putValue(value, valueId);
+    }
+
+    @TruffleBoundary
+    public synchronized void returnValue(int nodeId, int tag, Object value) {
+        int valueId = internValue(value);
+        ensure(MAX_FIXED_RECORD);
+        putEventHeader(RETURN, nodeId, tag);
+        putValue(value, valueId);
+    }
+
+    @TruffleBoundary
+    public synchronized void returnExceptional(int nodeId, int tag, Throwable exception) {
+        int exceptionId = intern(exception.getClass().getSimpleName());
+        ensure(MAX_FIXED_RECORD);
+        putEventHeader(RETURN_EXCEPTIONAL, nodeId, tag);
+        putVarInt(exceptionId);
+    }
+
+    /**
+     * @return the fill level (0 to 1) of the buffer not yet written to the file
+     */
+    public synchronized double getFillLevel() {
+        return (double) buffer.position() / BUFFER_SIZE;
+    }
+
+    @TruffleBoundary
+    public synchronized void close() {
+        try {
+            flush();
+            channel.close();
+        } catch (IOException e) {
+            Logger.error("cannot close binary trace: " + e.getMessage());
+        }
+    }
+
+    private void putEventHeader(byte kind, int nodeId, int tag) {
+        buffer.put(kind);
+        putVarInt(nodeId);
+        buffer.put((byte) tag);
+    }
+
+    /**
+     * Interns the strings that describe a value, i.e., function names and class names.
+     *
+     * @return the dictionary id or -1 if the value is written inline
+     */
+    private int internValue(Object value) {
+        byte type = RawEventsTracingSupport.getValueType(value);
+        if (type == VAL_FUNCTION || type == VAL_OTHER) {
+            return intern(RawEventsTracingSupport.getValueName(value));
+        }
+        if (type == VAL_STRING) {
+            // strings are written inline, reserve space for them
+            ensure(MAX_FIXED_RECORD + 5 + utf8Length(value.toString()));
+        }
+        return -1;
+    }
+
+    private void putValue(Object value, int valueId) {
+        byte type = RawEventsTracingSupport.getValueType(value);
+        buffer.put(type);
+        switch (type) {
+            case VAL_INT:
+                putVarLong(zigZag(((Number) value).intValue()));
+                break;
+            case VAL_LONG:
+                putVarLong(zigZag(((Number) value).longValue()));
+                break;
+            case VAL_DOUBLE:
+                buffer.putDouble(((Number) value).doubleValue());
+                break;
+            case VAL_STRING:
+                putStringBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+                break;
+            case VAL_FUNCTION:
+            case VAL_OTHER:
+                putVarInt(valueId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private int intern(String str) {
+        Integer id = dictionary.get(str);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(str, id);
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            ensure(MAX_FIXED_RECORD + bytes.length);
+            buffer.put(DICT);
+            putVarInt(id);
+            putStringBytes(bytes);
+        }
+        return id;
+    }
+
+    private static int utf8Length(String str) {
+        // upper bound
+        return str.length() * 3;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void putStringBytes(byte[] bytes) {
+        putVarInt(bytes.length);
+        if (bytes.length > buffer.remaining()) {
+            // larger than the whole buffer, write it directly
+            flush();
+            writeFully(ByteBuffer.wrap(bytes));
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    private void putVarInt(int value) {
+        putVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void putVarLong(long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < Math.min(bytes, BUFFER_SIZE)) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buf) {
+        try {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } catch (IOException e) {
+            Logger.error("cannot write binary trace: " + e.getMessage());
+            System.exit(-1);
+        }
+    }
+}
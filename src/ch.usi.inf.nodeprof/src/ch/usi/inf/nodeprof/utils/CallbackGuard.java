@@ -0,0 +1,47 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.utils;
+
+/**
+ * Reentrancy guard for analysis callbacks, to avoid instrumentation of the analysis code being
+ * called recursively.
+ *
+ * There is one guard per engine, context and thread (see NodeProfInstrument.getCallbackGuard), so
+ * that a callback running in one thread or context does not suppress the events of another one.
+ */
+public final class CallbackGuard {
+    private boolean inCallback = false;
+
+    /**
+     * @return true to proceed with the callback or false if a callback is already running
+     */
+    public boolean enter() {
+        if (inCallback) {
+            return false;
+        }
+        inCallback = true;
+        return true;
+    }
+
+    public void exit() {
+        inCallback = false;
+    }
+
+    public boolean isInCallback() {
+        return inCallback;
+    }
+}
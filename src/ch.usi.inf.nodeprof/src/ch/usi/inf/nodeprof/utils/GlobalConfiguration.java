@@ -59,6 +59,11 @@ public class GlobalConfiguration {
      */
     @CompilationFinal public static boolean DEBUG_TRACING;
 
+    /**
+     * file for the binary event trace, enables tracing (empty: no binary trace)
+     */
+    @CompilationFinal public static String TRACE_FILE;
+
     /**
      * use absolute instead of relative path in logs
      */
@@ -69,6 +74,97 @@ public class GlobalConfiguration {
      */
     @CompilationFinal public static boolean SYMBOLIC_LOCATIONS;
 
+    /**
+     * count events per tag, see ProfiledTagEnum (disabled: no counting in the instrumentation fast path)
+     */
+    @CompilationFinal public static boolean STATS;
+
+    /**
+     * tags of the nodes counted by HitCountSupport (empty: no counting)
+     */
+    @CompilationFinal public static String HIT_COUNTS;
+
+    /**
+     * output file for the execution counters of HitCountSupport
+     */
+    @CompilationFinal public static String HIT_COUNTS_FILE;
+
+    /**
+     * use IIDs that do not depend on the instrumentation order, see SourceMapping
+     */
+    @CompilationFinal public static boolean STABLE_IIDS;
+
+    /**
+     * output file for the IID index, see SourceMapping.writeIndex
+     */
+    @CompilationFinal public static String IID_INDEX_FILE;
+
+    /**
+     * use the declared parameters (length) of Jalangi callbacks to skip unused arguments
+     */
+    @CompilationFinal public static boolean CALLBACK_ARITY;
+
+    /**
+     * pass call arguments to Jalangi callbacks as ArgumentsView instead of JS arrays
+     */
+    @CompilationFinal public static boolean ARGUMENTS_VIEW;
+
+    /**
+     * default sampling period of analyses, see SamplingConfig
+     */
+    @CompilationFinal public static int SAMPLE_RATE;
+
+    /**
+     * default number of consecutive executions sampled per period, see SamplingConfig
+     */
+    @CompilationFinal public static int SAMPLE_BURST;
+
+    /**
+     * event rate budget per instrumented node, see OverheadGovernor (0: no limit)
+     */
+    @CompilationFinal public static int MAX_EVENTS_PER_SECOND;
+
+    /**
+     * callback time budget per instrumented node in percent of the execution time, see
+     * OverheadGovernor (0: no limit)
+     */
+    @CompilationFinal public static double MAX_CALLBACK_TIME_SHARE;
+
+    /**
+     * the maximum number of handler updates per instrumented node
+     */
+    @CompilationFinal public static int MAX_HANDLER_UPDATES;
+
+    /**
+     * measure the time spent in Jalangi callbacks, see CallbackTiming
+     */
+    @CompilationFinal public static boolean CALLBACK_TIMING;
+
+    /**
+     * output file for the callback times of CallbackTiming
+     */
+    @CompilationFinal public static String CALLBACK_TIMING_FILE;
+
+    /**
+     * register the metrics MBean, see MetricsSupport
+     */
+    @CompilationFinal public static boolean METRICS;
+
+    /**
+     * file for the periodic metrics snapshots
+     */
+    @CompilationFinal public static String METRICS_FILE;
+
+    /**
+     * interval between two metrics samples in ms
+     */
+    @CompilationFinal public static int METRICS_INTERVAL;
+
+    /**
+     * delayed start of the instrumentation, see DelayedStart
+     */
+    @CompilationFinal public static String START_AFTER;
+
     @TruffleBoundary
     public static void setup(Env env) {
         DEBUG_TRACING = env.getOptions().get(NodeProfCLI.TRACE_EVENTS);
@@ -79,5 +175,24 @@ public class GlobalConfiguration {
         IGNORE_JALANGI_EXCEPTION = env.getOptions().get(NodeProfCLI.IGNORE_JALANGI_EXCEPTION);
         LOG_ABSOLUTE_PATH = env.getOptions().get(NodeProfCLI.LOG_ABSOLUTE_PATH);
         SYMBOLIC_LOCATIONS = env.getOptions().get(NodeProfCLI.SYMBOLIC_LOCATIONS);
+        TRACE_FILE = env.getOptions().get(NodeProfCLI.TRACE_FILE);
+        STATS = env.getOptions().get(NodeProfCLI.STATS);
+        HIT_COUNTS = env.getOptions().get(NodeProfCLI.HIT_COUNTS);
+        HIT_COUNTS_FILE = env.getOptions().get(NodeProfCLI.HIT_COUNTS_FILE);
+        STABLE_IIDS = env.getOptions().get(NodeProfCLI.STABLE_IIDS);
+        IID_INDEX_FILE = env.getOptions().get(NodeProfCLI.IID_INDEX_FILE);
+        CALLBACK_ARITY = env.getOptions().get(NodeProfCLI.CALLBACK_ARITY);
+        ARGUMENTS_VIEW = env.getOptions().get(NodeProfCLI.ARGUMENTS_VIEW);
+        SAMPLE_RATE = env.getOptions().get(NodeProfCLI.SAMPLE_RATE);
+        SAMPLE_BURST = env.getOptions().get(NodeProfCLI.SAMPLE_BURST);
+        MAX_EVENTS_PER_SECOND = env.getOptions().get(NodeProfCLI.MAX_EVENTS_PER_SECOND);
+        MAX_CALLBACK_TIME_SHARE = env.getOptions().get(NodeProfCLI.MAX_CALLBACK_TIME_SHARE);
+        MAX_HANDLER_UPDATES = env.getOptions().get(NodeProfCLI.MAX_HANDLER_UPDATES);
+        CALLBACK_TIMING = env.getOptions().get(NodeProfCLI.CALLBACK_TIMING);
+        CALLBACK_TIMING_FILE = env.getOptions().get(NodeProfCLI.CALLBACK_TIMING_FILE);
+        METRICS = env.getOptions().get(NodeProfCLI.METRICS);
+        METRICS_FILE = env.getOptions().get(NodeProfCLI.METRICS_FILE);
+        METRICS_INTERVAL = env.getOptions().get(NodeProfCLI.METRICS_INTERVAL);
+        START_AFTER = env.getOptions().get(NodeProfCLI.START_AFTER);
     }
 }
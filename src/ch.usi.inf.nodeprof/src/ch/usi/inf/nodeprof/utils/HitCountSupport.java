@@ -0,0 +1,188 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.utils;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNodeFactory;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+import com.oracle.truffle.api.instrumentation.Tag;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFilterSourceList;
+
+/**
+ * Built-in execution counters (see --nodeprof.HitCounts).
+ *
+ * Every instrumented node increments the slot of its IID in a primitive array, without calling
+ * into any analysis. The counters can be read with J$.getHitCounts() and are written to
+ * --nodeprof.HitCountsFile at exit.
+ */
+public class HitCountSupport {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static boolean enabled = false;
+
+    /**
+     * counters indexed by the SourceMapping index of the IID (the IID itself unless
+     * --nodeprof.StableIIDs is set), grown when more nodes are instrumented. Concurrent increments
+     * are not synchronized, i.e., counts from multi-threaded code are approximate.
+     */
+    private static long[] counts = new long[INITIAL_CAPACITY];
+
+    // largest index seen so far
+    private static int maxIndex = 0;
+
+    @TruffleBoundary
+    public static void enable(Instrumenter instrumenter) {
+        if (enabled) {
+            return;
+        }
+        Class<?>[] tags = parseTags(GlobalConfiguration.HIT_COUNTS);
+        SourceSectionFilter filter = SourceSectionFilter.newBuilder().sourceIs(AnalysisFilterSourceList.getDefault()).tagIs(tags).build();
+        // no input filter: the counters only need onEnter
+        instrumenter.attachExecutionEventFactory(filter, new ExecutionEventNodeFactory() {
+            @Override
+            public ExecutionEventNode create(EventContext context) {
+                return new CounterNode(register(context));
+            }
+        });
+        Logger.debug("Hit counting enabled for " + GlobalConfiguration.HIT_COUNTS);
+        enabled = true;
+    }
+
+    private static Class<?>[] parseTags(String tagNames) {
+        ArrayList<Class<? extends Tag>> tags = new ArrayList<>();
+        for (String name : tagNames.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            try {
+                tags.add(ProfiledTagEnum.valueOf(trimmed.toUpperCase()).getTag());
+            } catch (IllegalArgumentException e) {
+                Logger.error("unknown tag " + trimmed + " in --nodeprof.HitCounts, expected one of " + Arrays.toString(ProfiledTagEnum.values()));
+                System.exit(-1);
+            }
+        }
+        return tags.toArray(new Class<?>[tags.size()]);
+    }
+
+    @TruffleBoundary
+    private static synchronized int register(EventContext context) {
+        int iid = SourceMapping.getIIDForSourceSection(context.getInstrumentedSourceSection());
+        int index = SourceMapping.getIndexForIID(iid);
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+        }
+        maxIndex = Math.max(maxIndex, index);
+        return index;
+    }
+
+    private static final class CounterNode extends ExecutionEventNode {
+        private final int index;
+
+        CounterNode(int index) {
+            this.index = index;
+        }
+
+        @Override
+        protected void onEnter(VirtualFrame frame) {
+            long[] c = counts;
+            if (index < c.length) {
+                c[index]++;
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the counters, indexed by SourceMapping index
+     */
+    @TruffleBoundary
+    public static synchronized long[] getCounts() {
+        return Arrays.copyOf(counts, maxIndex + 1);
+    }
+
+    /**
+     * @return the counters as little-endian doubles (for a JS Float64Array), indexed by IID. With
+     *         --nodeprof.StableIIDs, the IIDs are too sparse for that and the doubles are (iid,
+     *         count) pairs for all counted IIDs instead.
+     */
+    @TruffleBoundary
+    public static byte[] getCountsAsDoubles() {
+        long[] c = getCounts();
+        ByteBuffer buf;
+        if (GlobalConfiguration.STABLE_IIDS) {
+            int n = 0;
+            for (int index = 1; index < c.length; index++) {
+                if (c[index] > 0) {
+                    n++;
+                }
+            }
+            buf = ByteBuffer.allocate(n * 2 * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int index = 1; index < c.length; index++) {
+                if (c[index] > 0) {
+                    buf.putDouble(SourceMapping.getIIDAt(index));
+                    buf.putDouble(c[index]);
+                }
+            }
+        } else {
+            buf = ByteBuffer.allocate(c.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (long count : c) {
+                buf.putDouble(count);
+            }
+        }
+        return buf.array();
+    }
+
+    @TruffleBoundary
+    public static synchronized void reset() {
+        Arrays.fill(counts, 0);
+    }
+
+    /**
+     * write the non-zero counters as "iid,count,location" lines to --nodeprof.HitCountsFile
+     */
+    @TruffleBoundary
+    public static void dump() {
+        if (!enabled || GlobalConfiguration.HIT_COUNTS_FILE.isEmpty()) {
+            return;
+        }
+        long[] c = getCounts();
+        try (PrintStream out = new PrintStream(GlobalConfiguration.HIT_COUNTS_FILE)) {
+            for (int index = 1; index < c.length; index++) {
+                if (c[index] > 0) {
+                    int iid = SourceMapping.getIIDAt(index);
+                    out.println(iid + "," + c[index] + "," + SourceMapping.getLocationForIID(iid));
+                }
+            }
+        } catch (FileNotFoundException e) {
+            Logger.error("cannot write hit counts to " + GlobalConfiguration.HIT_COUNTS_FILE + ": " + e.getMessage());
+        }
+    }
+}
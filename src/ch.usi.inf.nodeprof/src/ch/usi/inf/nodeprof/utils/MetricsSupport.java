@@ -0,0 +1,228 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.utils;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.InstrumentationStatistics;
+import ch.usi.inf.nodeprof.jalangi.CallbackTiming;
+import ch.usi.inf.nodeprof.jalangi.EventBuffer;
+
+/**
+ * Live metrics for long-running programs (see --nodeprof.Metrics and --nodeprof.MetricsFile).
+ *
+ * A daemon thread samples the metrics every --nodeprof.MetricsInterval milliseconds. The latest
+ * sample is exposed by a JMX MBean and/or appended as one JSON object per line to
+ * --nodeprof.MetricsFile.
+ *
+ * The events per second and the callback latency are computed from the counters of --nodeprof.Stats
+ * and --nodeprof.CallbackTiming, so enabling the metrics turns these options on.
+ */
+public final class MetricsSupport implements NodeProfMetricsMXBean {
+
+    public static final String OBJECT_NAME = "ch.usi.inf.nodeprof:type=Metrics";
+
+    private static MetricsSupport instance = null;
+
+    private final ScheduledExecutorService sampler;
+    private ObjectName registeredName = null;
+
+    // pre events per tag at the last sample
+    private final EnumMap<ProfiledTagEnum, Long> lastCounts = new EnumMap<>(ProfiledTagEnum.class);
+    private long lastSample = System.nanoTime();
+    private volatile Map<String, Double> eventsPerSecond = new LinkedHashMap<>();
+
+    private MetricsSupport() {
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "nodeprof-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @TruffleBoundary
+    public static synchronized void enable() {
+        if (instance != null || (!GlobalConfiguration.METRICS && GlobalConfiguration.METRICS_FILE.isEmpty())) {
+            return;
+        }
+        if (GlobalConfiguration.METRICS_INTERVAL <= 0) {
+            Logger.error("--nodeprof.MetricsInterval must be positive");
+            System.exit(-1);
+        }
+        // called before any node is instrumented, so the counters cover the whole execution
+        if (!GlobalConfiguration.STATS || !GlobalConfiguration.CALLBACK_TIMING) {
+            Logger.info("the metrics turn on --nodeprof.Stats and --nodeprof.CallbackTiming");
+            GlobalConfiguration.STATS = true;
+            GlobalConfiguration.CALLBACK_TIMING = true;
+        }
+        MetricsSupport metrics = new MetricsSupport();
+        if (GlobalConfiguration.METRICS) {
+            metrics.register();
+        }
+        metrics.sampler.scheduleAtFixedRate(metrics::sample, GlobalConfiguration.METRICS_INTERVAL, GlobalConfiguration.METRICS_INTERVAL, TimeUnit.MILLISECONDS);
+        instance = metrics;
+    }
+
+    private void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            registeredName = name;
+            Logger.debug("Metrics registered as " + OBJECT_NAME);
+        } catch (Exception | LinkageError e) {
+            // e.g., already registered by another engine, or no JMX support in a native image
+            Logger.warning("cannot register the metrics MBean: " + e);
+        }
+    }
+
+    /**
+     * stop sampling, write a last snapshot and unregister the MBean
+     */
+    @TruffleBoundary
+    public static synchronized void dispose() {
+        if (instance == null) {
+            return;
+        }
+        instance.sampler.shutdownNow();
+        instance.sample();
+        if (instance.registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(instance.registeredName);
+            } catch (Exception e) {
+                Logger.warning("cannot unregister the metrics MBean: " + e);
+            }
+        }
+        instance = null;
+    }
+
+    private synchronized void sample() {
+        long now = System.nanoTime();
+        double seconds = (now - lastSample) / 1e9;
+        LinkedHashMap<String, Double> rates = new LinkedHashMap<>();
+        for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+            long count = tag.getPreHitCount();
+            long last = lastCounts.getOrDefault(tag, 0L);
+            lastCounts.put(tag, count);
+            if (count > 0 && seconds > 0) {
+                rates.put(tag.toString(), (count - last) / seconds);
+            }
+        }
+        lastSample = now;
+        eventsPerSecond = rates;
+        if (!GlobalConfiguration.METRICS_FILE.isEmpty()) {
+            writeSnapshot();
+        }
+    }
+
+    private void writeSnapshot() {
+        try (PrintWriter out = new PrintWriter(new FileWriter(GlobalConfiguration.METRICS_FILE, true))) {
+            StringBuilder sb = new StringBuilder("{");
+            sb.append("\"time\": ").append(System.currentTimeMillis());
+            sb.append(", \"eventsPerSecond\": ");
+            appendMap(sb, getEventsPerSecond());
+            sb.append(", \"callbackLatencyMicros\": ");
+            appendMap(sb, getCallbackLatencyMicros());
+            sb.append(", \"instrumentedNodes\": ").append(getInstrumentedNodes());
+            sb.append(", \"deactivatedNodes\": ").append(getDeactivatedNodes());
+            sb.append(", \"iids\": ").append(getIIDCount());
+            sb.append(", \"sources\": ").append(getSourceCount());
+            sb.append(", \"bufferFillLevels\": ");
+            appendMap(sb, getBufferFillLevels());
+            out.println(sb.append('}'));
+        } catch (IOException e) {
+            Logger.error("cannot write metrics to " + GlobalConfiguration.METRICS_FILE + ": " + e.getMessage());
+        }
+    }
+
+    private static void appendMap(StringBuilder sb, Map<String, Double> map) {
+        sb.append('{');
+        String sep = "";
+        for (Map.Entry<String, Double> entry : map.entrySet()) {
+            sb.append(sep).append('"').append(entry.getKey().replace("\\", "\\\\").replace("\"", "\\\"")).append("\": ");
+            double value = entry.getValue();
+            // NaN and Infinity are not valid JSON numbers
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                sb.append("null");
+            } else {
+                sb.append(String.format(Locale.ROOT, "%.3f", value));
+            }
+            sep = ", ";
+        }
+        sb.append('}');
+    }
+
+    @Override
+    public Map<String, Double> getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    @Override
+    public Map<String, Double> getCallbackLatencyMicros() {
+        LinkedHashMap<String, Double> result = new LinkedHashMap<>();
+        if (GlobalConfiguration.CALLBACK_TIMING) {
+            result.put("p50", CallbackTiming.getLatencyPercentile(50) / 1e3);
+            result.put("p90", CallbackTiming.getLatencyPercentile(90) / 1e3);
+            result.put("p99", CallbackTiming.getLatencyPercentile(99) / 1e3);
+        }
+        return result;
+    }
+
+    @Override
+    public long getInstrumentedNodes() {
+        return InstrumentationStatistics.getNodeCount();
+    }
+
+    @Override
+    public long getDeactivatedNodes() {
+        return InstrumentationStatistics.getDeactivatedCount();
+    }
+
+    @Override
+    public int getIIDCount() {
+        return SourceMapping.getIndexCount();
+    }
+
+    @Override
+    public int getSourceCount() {
+        return SourceMapping.getSourceCount();
+    }
+
+    @Override
+    public Map<String, Double> getBufferFillLevels() {
+        LinkedHashMap<String, Double> result = new LinkedHashMap<>(EventBuffer.getFillLevels());
+        double trace = RawEventsTracingSupport.getTraceBufferFillLevel();
+        if (trace >= 0) {
+            result.put("trace", trace);
+        }
+        return result;
+    }
+}
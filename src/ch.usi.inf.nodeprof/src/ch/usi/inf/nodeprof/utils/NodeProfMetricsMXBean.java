@@ -0,0 +1,58 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.utils;
+
+import java.util.Map;
+
+/**
+ * Live NodeProf metrics, registered as ch.usi.inf.nodeprof:type=Metrics with --nodeprof.Metrics
+ * (see MetricsSupport).
+ */
+public interface NodeProfMetricsMXBean {
+
+    /**
+     * @return the events per second of every tag during the last sampling interval (requires
+     *         --nodeprof.Stats)
+     */
+    Map<String, Double> getEventsPerSecond();
+
+    /**
+     * @return the 50th, 90th and 99th percentile of the callback latency in microseconds (requires
+     *         --nodeprof.CallbackTiming)
+     */
+    Map<String, Double> getCallbackLatencyMicros();
+
+    long getInstrumentedNodes();
+
+    long getDeactivatedNodes();
+
+    /**
+     * @return the number of IIDs in SourceMapping
+     */
+    int getIIDCount();
+
+    /**
+     * @return the number of sources in SourceMapping
+     */
+    int getSourceCount();
+
+    /**
+     * @return the fill level (0 to 1) of the event buffers of batch-mode analyses and of the
+     *         binary trace
+     */
+    Map<String, Double> getBufferFillLevels();
+}
@@ -16,6 +16,9 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof.utils;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.instrumentation.EventContext;
@@ -30,6 +33,7 @@ import com.oracle.truffle.api.interop.InteropLibrary;
 import com.oracle.truffle.api.interop.UnknownIdentifierException;
 import com.oracle.truffle.api.interop.UnsupportedMessageException;
 import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.strings.TruffleString;
 import com.oracle.truffle.js.nodes.JavaScriptNode;
 import com.oracle.truffle.js.nodes.instrumentation.JSTags;
 import com.oracle.truffle.js.nodes.instrumentation.JSTags.BuiltinRootTag;
@@ -55,6 +59,11 @@ public class RawEventsTracingSupport {
     // TODO maybe there's a nicer way to avoid enabling an instrument twice...
     private static boolean enabled = false;
 
+    /**
+     * writer of the binary trace if --nodeprof.TraceFile is set
+     */
+    private static BinaryTraceWriter binaryWriter = null;
+
     @TruffleBoundary
     public static void enable(Instrumenter instrumenter) {
         if (enabled == false) {
@@ -62,12 +71,182 @@ public class RawEventsTracingSupport {
             SourceSectionFilter inputGeneratingObjects = SourceSectionFilter.newBuilder().tagIs(
                             StandardTags.ExpressionTag.class,
                             JSTags.InputNodeTag.class).build();
-            instrumenter.attachExecutionEventFactory(sourceSectionFilter, inputGeneratingObjects, getFactory());
-            Logger.info("Low-level event tracing enabled [SVM: " + JSConfig.SubstrateVM + "]");
+            ExecutionEventNodeFactory factory;
+            if (GlobalConfiguration.TRACE_FILE.isEmpty()) {
+                factory = getFactory();
+            } else {
+                try {
+                    binaryWriter = new BinaryTraceWriter(Paths.get(GlobalConfiguration.TRACE_FILE));
+                } catch (IOException e) {
+                    Logger.error("cannot create binary trace " + GlobalConfiguration.TRACE_FILE + ": " + e.getMessage());
+                    System.exit(-1);
+                }
+                factory = getBinaryFactory(binaryWriter);
+            }
+            instrumenter.attachExecutionEventFactory(sourceSectionFilter, inputGeneratingObjects, factory);
+            Logger.info("Low-level event tracing enabled [SVM: " + JSConfig.SubstrateVM + "]" + (binaryWriter == null ? "" : " writing to " + GlobalConfiguration.TRACE_FILE));
             enabled = true;
         }
     }
 
+    /**
+     * @return the fill level (0 to 1) of the binary trace buffer, or -1 without binary trace
+     */
+    @TruffleBoundary
+    public static double getTraceBufferFillLevel() {
+        BinaryTraceWriter writer = binaryWriter;
+        return writer == null ? -1 : writer.getFillLevel();
+    }
+
+    /**
+     * flush and close the binary trace (if any)
+     */
+    @TruffleBoundary
+    public static void dispose() {
+        if (binaryWriter != null) {
+            binaryWriter.close();
+            binaryWriter = null;
+        }
+    }
+
+    static String indent(int depth) {
+        StringBuilder p = new StringBuilder();
+        for (int d = depth; d > 0; d--) {
+            p.append("    ");
+        }
+        return p.toString();
+    }
+
+    /*
+     * The formatting of the events is shared with the BinaryTraceDecoder, which prints the same view
+     * from a binary trace.
+     */
+
+    static String formatInput(int inputIndex, int inputCount, String tags, String nodeClass, String value, String fromClass) {
+        return String.format("%-7s|tag: %-20s @ %-20s|val: %-25s|from: %-20s", "IN " + (1 + inputIndex) + "/" + inputCount, tags, nodeClass, value, fromClass);
+    }
+
+    static String formatEnter(String tags, String nodeClass, String attributes) {
+        return String.format("%-7s|tag: %-20s @ %-20s |attr: %-20s", "ENTER", tags, nodeClass, attributes);
+    }
+
+    static String formatReturn(String tags, String nodeClass, String value, String attributes) {
+        return String.format("%-7s|tag: %-20s @ %-20s |rval: %-20s |attr: %-20s", "RETURN", tags, nodeClass, value, attributes);
+    }
+
+    static String formatReturnExceptional(String tags, String nodeClass, String exceptionClass, String attributes) {
+        return String.format("%-7s|tag: %-20s @ %-20s |rval: %-20s |attr: %-20s", "RET-EXC", tags, nodeClass, exceptionClass, attributes);
+    }
+
+    /**
+     * @return the type code of a value in the binary trace
+     */
+    static byte getValueType(Object value) {
+        if (value == null) {
+            return BinaryTraceWriter.VAL_NULL;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? BinaryTraceWriter.VAL_TRUE : BinaryTraceWriter.VAL_FALSE;
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return BinaryTraceWriter.VAL_INT;
+        } else if (value instanceof Long) {
+            return BinaryTraceWriter.VAL_LONG;
+        } else if (value instanceof Number) {
+            return BinaryTraceWriter.VAL_DOUBLE;
+        } else if (value instanceof String || value instanceof TruffleString) {
+            return BinaryTraceWriter.VAL_STRING;
+        } else if (JSFunction.isJSFunction(value)) {
+            return BinaryTraceWriter.VAL_FUNCTION;
+        } else if (JSObject.isJSObject(value)) {
+            return BinaryTraceWriter.VAL_OBJECT;
+        }
+        return BinaryTraceWriter.VAL_OTHER;
+    }
+
+    /**
+     * @return the function name for functions and the class name for other values
+     */
+    static String getValueName(Object value) {
+        if (JSFunction.isJSFunction(value)) {
+            return JSFunction.getName((JSDynamicObject) value).toString();
+        }
+        return value.getClass().getSimpleName();
+    }
+
+    static String describeFunction(String name) {
+        return "JSFunction:'" + name + "'";
+    }
+
+    static final String OBJECT_DESCRIPTION = "JSObject: instance";
+
+    @TruffleBoundary
+    private static String getValueDescription(Object inputValue) {
+        if (JSFunction.isJSFunction(inputValue)) {
+            return describeFunction(getValueName(inputValue));
+        } else if (JSObject.isJSObject(inputValue)) {
+            return OBJECT_DESCRIPTION;
+        } else if (inputValue instanceof String || inputValue instanceof TruffleString) {
+            return inputValue.toString();
+        } else if (inputValue instanceof Number) {
+            return inputValue.toString();
+        } else if (inputValue instanceof Boolean) {
+            return inputValue.toString();
+        }
+        return inputValue != null ? inputValue.getClass().getSimpleName() : "null";
+    }
+
+    private static int getTagByte(Node node) {
+        for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+            if (((InstrumentableNode) node).hasTag(tag.getTag())) {
+                return tag.ordinal();
+            }
+        }
+        return BinaryTraceWriter.NO_TAG;
+    }
+
+    private static ExecutionEventNodeFactory getBinaryFactory(BinaryTraceWriter writer) {
+        return new ExecutionEventNodeFactory() {
+            @Override
+            public ExecutionEventNode create(EventContext c) {
+                return new ExecutionEventNode() {
+                    // nodes can share a source section and IID, events refer to the node id
+                    private final int nodeId = describe(c);
+                    private final int tag = getTagByte(c.getInstrumentedNode());
+
+                    @TruffleBoundary
+                    private int describe(EventContext cx) {
+                        int iid = SourceMapping.getIIDForSourceSection(cx.getInstrumentedSourceSection());
+                        return writer.node(iid, cx.getInstrumentedNode().getClass().getSimpleName(), getTagNames((JavaScriptNode) cx.getInstrumentedNode()), getAttributesDescription(cx));
+                    }
+
+                    @Override
+                    protected void onEnter(VirtualFrame frame) {
+                        writer.enter(nodeId, tag);
+                    }
+
+                    @Override
+                    protected void onInputValue(VirtualFrame frame, EventContext i, int inputIndex, Object inputValue) {
+                        writer.input(nodeId, tag, inputIndex, getInputCount(), getNodeClass(i), inputValue);
+                    }
+
+                    @TruffleBoundary
+                    private String getNodeClass(EventContext i) {
+                        return i.getInstrumentedNode().getClass().getSimpleName();
+                    }
+
+                    @Override
+                    protected void onReturnValue(VirtualFrame frame, Object result) {
+                        writer.returnValue(nodeId, tag, result);
+                    }
+
+                    @Override
+                    protected void onReturnExceptional(VirtualFrame frame, Throwable exception) {
+                        writer.returnExceptional(nodeId, tag, exception);
+                    }
+                };
+            }
+        };
+    }
+
     private static ExecutionEventNodeFactory getFactory() {
         ExecutionEventNodeFactory factory = new ExecutionEventNodeFactory() {
 
@@ -78,37 +257,14 @@ public class RawEventsTracingSupport {
                 return new ExecutionEventNode() {
 
                     private void log(String s) {
-                        String p = "";
-                        int d = depth;
-                        while (d-- > 0) {
-                            p += "    ";
-                        }
-                        Logger.info(p + s);
-                    }
-
-                    @TruffleBoundary
-                    private String getValueDescription(Object inputValue) {
-                        if (JSFunction.isJSFunction(inputValue)) {
-                            return "JSFunction:'" + JSFunction.getName((JSDynamicObject) inputValue) + "'";
-                        } else if (JSObject.isJSObject(inputValue)) {
-                            return "JSObject: instance";
-                        } else if (inputValue instanceof String) {
-                            return inputValue.toString();
-                        } else if (inputValue instanceof Number) {
-                            return inputValue.toString();
-                        } else if (inputValue instanceof Boolean) {
-                            return inputValue.toString();
-                        }
-                        return inputValue != null ? inputValue.getClass().getSimpleName() : "null";
+                        Logger.info(indent(depth) + s);
                     }
 
                     @TruffleBoundary
                     @Override
                     protected void onInputValue(VirtualFrame frame, EventContext i, int inputIndex, Object inputValue) {
-                        String format = String.format("%-7s|tag: %-20s @ %-20s|val: %-25s|from: %-20s", "IN " + (1 + inputIndex) + "/" + getInputCount(),
-                                        getTagNames((JavaScriptNode) c.getInstrumentedNode()),
-                                        c.getInstrumentedNode().getClass().getSimpleName(), getValueDescription(inputValue), i.getInstrumentedNode().getClass().getSimpleName());
-                        log(format);
+                        log(formatInput(inputIndex, getInputCount(), getTagNames((JavaScriptNode) c.getInstrumentedNode()),
+                                        c.getInstrumentedNode().getClass().getSimpleName(), getValueDescription(inputValue), i.getInstrumentedNode().getClass().getSimpleName()));
                     }
 
                     @Node.Child private InteropLibrary dispatch = InteropLibrary.getFactory().createDispatched(5);
@@ -122,9 +278,7 @@ public class RawEventsTracingSupport {
                             e.printStackTrace();
                         }
 
-                        String format = String.format("%-7s|tag: %-20s @ %-20s |attr: %-20s", "ENTER", getTagNames((JavaScriptNode) c.getInstrumentedNode()),
-                                        c.getInstrumentedNode().getClass().getSimpleName(), getAttributesDescription(c));
-                        log(format);
+                        log(formatEnter(getTagNames((JavaScriptNode) c.getInstrumentedNode()), c.getInstrumentedNode().getClass().getSimpleName(), getAttributesDescription(c)));
                         depth++;
 
                     }
@@ -133,61 +287,16 @@ public class RawEventsTracingSupport {
                     @Override
                     protected void onReturnValue(VirtualFrame frame, Object result) {
                         depth--;
-                        String format = String.format("%-7s|tag: %-20s @ %-20s |rval: %-20s |attr: %-20s", "RETURN", getTagNames((JavaScriptNode) c.getInstrumentedNode()),
-                                        c.getInstrumentedNode().getClass().getSimpleName(), getValueDescription(result), getAttributesDescription(c));
-                        log(format);
+                        log(formatReturn(getTagNames((JavaScriptNode) c.getInstrumentedNode()), c.getInstrumentedNode().getClass().getSimpleName(), getValueDescription(result),
+                                        getAttributesDescription(c)));
                     }
 
                     @TruffleBoundary
                     @Override
                     protected void onReturnExceptional(VirtualFrame frame, Throwable exception) {
                         depth--;
-                        String format = String.format("%-7s|tag: %-20s @ %-20s |rval: %-20s |attr: %-20s", "RET-EXC", getTagNames((JavaScriptNode) c.getInstrumentedNode()),
-                                        c.getInstrumentedNode().getClass().getSimpleName(), exception.getClass().getSimpleName(), getAttributesDescription(c));
-                        log(format);
-                    }
-
-                    private Object getAttributeFrom(EventContext cx, String name) {
-                        try {
-                            return InteropLibrary.getFactory().getUncached().readMember(((InstrumentableNode) cx.getInstrumentedNode()).getNodeObject(), name);
-                        } catch (UnknownIdentifierException | UnsupportedMessageException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-
-                    private String appendAttributes(EventContext cx, String... attributeNames) {
-                        StringBuilder sb = new StringBuilder();
-                        for (String aName : attributeNames) {
-                            sb.append(aName + "='" + getAttributeFrom(cx, aName) + "' ");
-                        }
-                        return sb.toString();
-                    }
-
-                    private String getAttributesDescription(EventContext cx) {
-                        String extra = "";
-                        JavaScriptNode n = (JavaScriptNode) cx.getInstrumentedNode();
-                        if (n.hasTag(BuiltinRootTag.class)) {
-                            extra += appendAttributes(cx, "name");
-                        }
-                        if (n.hasTag(ReadPropertyTag.class)) {
-                            extra += appendAttributes(cx, "key");
-                        }
-                        if (n.hasTag(ReadVariableTag.class)) {
-                            extra += appendAttributes(cx, "name");
-                        }
-                        if (n.hasTag(WritePropertyTag.class)) {
-                            extra += appendAttributes(cx, "key");
-                        }
-                        if (n.hasTag(WriteVariableTag.class)) {
-                            extra += appendAttributes(cx, "name");
-                        }
-                        if (n.hasTag(LiteralTag.class)) {
-                            extra += appendAttributes(cx, LiteralTag.TYPE);
-                        }
-                        if (n.hasTag(DeclareTag.class)) {
-                            extra += appendAttributes(cx, DeclareTag.NAME, DeclareTag.TYPE);
-                        }
-                        return extra;
+                        log(formatReturnExceptional(getTagNames((JavaScriptNode) c.getInstrumentedNode()), c.getInstrumentedNode().getClass().getSimpleName(),
+                                        exception.getClass().getSimpleName(), getAttributesDescription(c)));
                     }
                 };
             }
@@ -195,6 +304,49 @@ public class RawEventsTracingSupport {
         return factory;
     }
 
+    private static Object getAttributeFrom(EventContext cx, String name) {
+        try {
+            return InteropLibrary.getFactory().getUncached().readMember(((InstrumentableNode) cx.getInstrumentedNode()).getNodeObject(), name);
+        } catch (UnknownIdentifierException | UnsupportedMessageException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String appendAttributes(EventContext cx, String... attributeNames) {
+        StringBuilder sb = new StringBuilder();
+        for (String aName : attributeNames) {
+            sb.append(aName + "='" + getAttributeFrom(cx, aName) + "' ");
+        }
+        return sb.toString();
+    }
+
+    private static String getAttributesDescription(EventContext cx) {
+        String extra = "";
+        JavaScriptNode n = (JavaScriptNode) cx.getInstrumentedNode();
+        if (n.hasTag(BuiltinRootTag.class)) {
+            extra += appendAttributes(cx, "name");
+        }
+        if (n.hasTag(ReadPropertyTag.class)) {
+            extra += appendAttributes(cx, "key");
+        }
+        if (n.hasTag(ReadVariableTag.class)) {
+            extra += appendAttributes(cx, "name");
+        }
+        if (n.hasTag(WritePropertyTag.class)) {
+            extra += appendAttributes(cx, "key");
+        }
+        if (n.hasTag(WriteVariableTag.class)) {
+            extra += appendAttributes(cx, "name");
+        }
+        if (n.hasTag(LiteralTag.class)) {
+            extra += appendAttributes(cx, LiteralTag.TYPE);
+        }
+        if (n.hasTag(DeclareTag.class)) {
+            extra += appendAttributes(cx, DeclareTag.NAME, DeclareTag.TYPE);
+        }
+        return extra;
+    }
+
     @SuppressWarnings("unchecked")
     public static final String getTagNames(JavaScriptNode node) {
         String tags = "";
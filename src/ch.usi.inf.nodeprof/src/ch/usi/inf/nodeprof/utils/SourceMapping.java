@@ -19,6 +19,9 @@ package ch.usi.inf.nodeprof.utils;
 import static ch.usi.inf.nodeprof.utils.ObjectHelper.setConfigProperty;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -37,63 +40,328 @@ import com.oracle.truffle.js.runtime.builtins.JSOrdinary;
 import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 import com.oracle.truffle.js.runtime.objects.Undefined;
 
+/**
+ * Mapping between source sections and IIDs.
+ *
+ * Every source section gets a dense index, described by three ints in {@link #sections}: the id
+ * of its source (an index into {@link #sources}), the char index and the char length of the
+ * section. The forward lookup uses an open-addressing table of indices hashed by these ints, and
+ * the SourceSection objects and location strings are only created on demand, e.g., for
+ * iidToLocation.
+ *
+ * By default the IID is the index itself, i.e., it depends on the instrumentation order. With
+ * --nodeprof.StableIIDs the IID is a hash of the normalized source name and the char range, which
+ * is the same in every run (see {@link #stableIID}).
+ */
 public abstract class SourceMapping {
-    private static int iidGen = 0;
-    @CompilationFinal private static HashMap<Integer, String> iidToLocationCache;
-    @CompilationFinal private static HashMap<SourceSection, Integer> sourceSet;
-    @CompilationFinal private static HashMap<Integer, SourceSection> idToSource;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int INTS_PER_INDEX = 3;
+
+    private static int indexGen = 0;
+
+    // sourceId, charIndex, charLength for every index (charIndex -1: unavailable section)
+    private static int[] sections;
+    // open-addressing table of indices (0: empty slot), its length is a power of two
+    private static int[] table;
+
+    // only with stable IIDs: the IID of every index and an open-addressing table from IID to index
+    private static int[] iids;
+    private static int[] iidTable;
+
+    private static Source[] sources;
+    private static HashMap<Source, Integer> sourceIds;
+    // the last looked up source, most lookups are for the same source
+    private static Source lastSource;
+    private static int lastSourceId;
+
+    // index used for a null source section
+    private static int nullSectionIndex;
+
     @CompilationFinal private static HashMap<SourceSection, String> syntheticLocations;
 
     @TruffleBoundary
     private static void init() {
         CompilerDirectives.transferToInterpreterAndInvalidate();
-        iidToLocationCache = new HashMap<>();
-        sourceSet = new HashMap<>();
-        idToSource = new HashMap<>();
         syntheticLocations = new HashMap<>();
+        clear();
+    }
+
+    private static void clear() {
+        indexGen = 0;
+        sections = new int[INITIAL_CAPACITY * INTS_PER_INDEX];
+        table = new int[INITIAL_CAPACITY * 2];
+        iids = new int[INITIAL_CAPACITY];
+        iidTable = new int[INITIAL_CAPACITY * 2];
+        sources = new Source[16];
+        sourceIds = new HashMap<>();
+        lastSource = null;
+        lastSourceId = -1;
+        nullSectionIndex = 0;
     }
 
     static {
         init();
     }
 
+    private static int getSourceId(Source source) {
+        if (source == lastSource) {
+            return lastSourceId;
+        }
+        Integer id = sourceIds.get(source);
+        if (id == null) {
+            id = sourceIds.size();
+            if (id == sources.length) {
+                sources = Arrays.copyOf(sources, sources.length * 2);
+            }
+            sources[id] = source;
+            sourceIds.put(source, id);
+        }
+        lastSource = source;
+        lastSourceId = id;
+        return id;
+    }
+
+    private static int hash(int sourceId, int charIndex, int charLength) {
+        int h = sourceId * 0x9E3779B1 + charIndex;
+        h = h * 0x9E3779B1 + charLength;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(int index, int sourceId, int charIndex, int charLength) {
+        int base = index * INTS_PER_INDEX;
+        return sections[base] == sourceId && sections[base + 1] == charIndex && sections[base + 2] == charLength;
+    }
+
+    private static void insert(int[] t, int index) {
+        int base = index * INTS_PER_INDEX;
+        int mask = t.length - 1;
+        int slot = hash(sections[base], sections[base + 1], sections[base + 2]) & mask;
+        while (t[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        t[slot] = index;
+    }
+
+    @TruffleBoundary
+    public static synchronized int getIIDForSourceSection(SourceSection sourceSection) {
+        return getIIDForIndex(getIndexForSourceSection(sourceSection));
+    }
+
+    private static int getIndexForSourceSection(SourceSection sourceSection) {
+        if (sourceSection == null) {
+            if (nullSectionIndex == 0) {
+                nullSectionIndex = newIndex(-1, -1, 0);
+            }
+            return nullSectionIndex;
+        }
+        int sourceId = getSourceId(sourceSection.getSource());
+        int charIndex = sourceSection.isAvailable() ? sourceSection.getCharIndex() : -1;
+        int charLength = sourceSection.isAvailable() ? sourceSection.getCharLength() : 0;
+
+        int mask = table.length - 1;
+        int slot = hash(sourceId, charIndex, charLength) & mask;
+        while (table[slot] != 0) {
+            if (matches(table[slot], sourceId, charIndex, charLength)) {
+                return table[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        int newIndex = newIndex(sourceId, charIndex, charLength);
+        table[slot] = newIndex;
+        // keep the load factor below 1/2
+        if (newIndex * 2 >= table.length) {
+            int[] newTable = new int[table.length * 2];
+            for (int index = 1; index <= newIndex; index++) {
+                if (index != nullSectionIndex) {
+                    insert(newTable, index);
+                }
+            }
+            table = newTable;
+        }
+        return newIndex;
+    }
+
+    private static int newIndex(int sourceId, int charIndex, int charLength) {
+        int newIndex = ++indexGen;
+        assert (newIndex < Integer.MAX_VALUE);
+        int base = newIndex * INTS_PER_INDEX;
+        if (base + INTS_PER_INDEX > sections.length) {
+            sections = Arrays.copyOf(sections, sections.length * 2);
+        }
+        sections[base] = sourceId;
+        sections[base + 1] = charIndex;
+        sections[base + 2] = charLength;
+        if (GlobalConfiguration.STABLE_IIDS) {
+            assignStableIID(newIndex);
+        }
+        return newIndex;
+    }
+
+    /**
+     * The stable IID of a section is the FNV-1a hash of the normalized source name, the char index
+     * and the char length (as positive int). Collisions are resolved by linear probing, i.e., the
+     * IIDs of colliding sections depend on which one is instrumented first.
+     */
+    private static int stableIID(int index) {
+        int base = index * INTS_PER_INDEX;
+        int h = 0x811C9DC5;
+        String name = sections[base] < 0 ? "" : getNormalizedName(sources[sections[base]]);
+        for (int i = 0; i < name.length(); i++) {
+            h = (h ^ name.charAt(i)) * 0x01000193;
+        }
+        for (int i = 1; i < INTS_PER_INDEX; i++) {
+            int v = sections[base + i];
+            for (int b = 0; b < 4; b++) {
+                h = (h ^ ((v >>> (8 * b)) & 0xFF)) * 0x01000193;
+            }
+        }
+        h &= Integer.MAX_VALUE;
+        return h == 0 ? 1 : h;
+    }
+
+    private static void assignStableIID(int index) {
+        if (index >= iids.length) {
+            iids = Arrays.copyOf(iids, iids.length * 2);
+        }
+        int iid = stableIID(index);
+        while (getIndexForStableIID(iid) != 0) {
+            // collision
+            iid = iid == Integer.MAX_VALUE ? 1 : iid + 1;
+        }
+        iids[index] = iid;
+        insertStableIID(iidTable, index);
+        if (index * 2 >= iidTable.length) {
+            int[] newTable = new int[iidTable.length * 2];
+            for (int i = 1; i <= index; i++) {
+                insertStableIID(newTable, i);
+            }
+            iidTable = newTable;
+        }
+    }
+
+    private static int mixIID(int iid) {
+        int h = iid * 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+
+    private static void insertStableIID(int[] t, int index) {
+        int mask = t.length - 1;
+        int slot = mixIID(iids[index]) & mask;
+        while (t[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        t[slot] = index;
+    }
+
+    private static int getIndexForStableIID(int iid) {
+        int mask = iidTable.length - 1;
+        int slot = mixIID(iid) & mask;
+        while (iidTable[slot] != 0) {
+            if (iids[iidTable[slot]] == iid) {
+                return iidTable[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the source name used for stable IIDs, i.e., relative to the working directory
+     */
+    private static String getNormalizedName(Source source) {
+        String name = source.getName();
+        if (name.startsWith("/")) {
+            String base = System.getProperty("user.dir");
+            return new File(base).toURI().relativize(new File(name).toURI()).getPath();
+        }
+        return name;
+    }
+
+    private static int getIIDForIndex(int index) {
+        return GlobalConfiguration.STABLE_IIDS ? iids[index] : index;
+    }
+
+    /**
+     * @return the dense index (1..getIndexCount()) of an IID, or 0 for unknown IIDs
+     */
     @TruffleBoundary
-    public static int getIIDForSourceSection(SourceSection sourceSection) {
-        if (sourceSet.containsKey(sourceSection)) {
-            return sourceSet.get(sourceSection);
+    public static synchronized int getIndexForIID(int iid) {
+        if (GlobalConfiguration.STABLE_IIDS) {
+            return getIndexForStableIID(iid);
         }
-        int newIId = ++iidGen;
-        assert (newIId < Integer.MAX_VALUE);
-        sourceSet.put(sourceSection, newIId);
-        idToSource.put(newIId, sourceSection);
-        return newIId;
+        return iid > 0 && iid <= indexGen ? iid : 0;
+    }
+
+    /**
+     * @return the IID for a dense index
+     */
+    @TruffleBoundary
+    public static synchronized int getIIDAt(int index) {
+        return getIIDForIndex(index);
+    }
+
+    /**
+     * @return the number of source sections with an IID
+     */
+    @TruffleBoundary
+    public static synchronized int getIndexCount() {
+        return indexGen;
+    }
+
+    /**
+     * @return the number of sources with an IID
+     */
+    @TruffleBoundary
+    public static synchronized int getSourceCount() {
+        return sourceIds.size();
     }
 
     @TruffleBoundary
     public static String getLocationForIID(int iid) {
-        if (iidToLocationCache.containsKey(iid)) {
-            return iidToLocationCache.get(iid);
-        } else if (idToSource.containsKey(iid)) {
-            String res = makeLocationString(idToSource.get(iid)).toString();
-            iidToLocationCache.put(iid, res);
-            return res;
-        } else {
-            return null;
-        }
+        SourceSection section = getSourceSectionForIID(iid);
+        return section == null ? null : makeLocationString(section).toString();
     }
 
     @TruffleBoundary
     public static String getCodeForIID(int iid) {
-        if (idToSource.containsKey(iid)) {
-            return idToSource.get(iid).getCharacters().toString();
-        } else {
+        SourceSection section = getSourceSectionForIID(iid);
+        return section == null ? null : section.getCharacters().toString();
+    }
+
+    /**
+     * @return the source section for the IID (created on demand), or null for unknown IIDs
+     */
+    @TruffleBoundary
+    public static synchronized SourceSection getSourceSectionForIID(int iid) {
+        int index = getIndexForIID(iid);
+        if (index == 0 || index == nullSectionIndex) {
             return null;
         }
+        int base = index * INTS_PER_INDEX;
+        Source source = sources[sections[base]];
+        int charIndex = sections[base + 1];
+        return charIndex < 0 ? source.createUnavailableSection() : source.createSection(charIndex, sections[base + 2]);
     }
 
+    /**
+     * Writes one "iid, char index, char length, source name" line (separated by tabs) for every
+     * IID, which allows to map the IIDs of a run to source locations offline.
+     *
+     * @param path the output file
+     */
     @TruffleBoundary
-    public static SourceSection getSourceSectionForIID(int iid) {
-        return idToSource.get(iid);
+    public static synchronized void writeIndex(String path) {
+        try (PrintStream out = new PrintStream(path)) {
+            for (int index = 1; index <= indexGen; index++) {
+                if (index == nullSectionIndex) {
+                    continue;
+                }
+                int base = index * INTS_PER_INDEX;
+                out.println(getIIDForIndex(index) + "\t" + sections[base + 1] + "\t" + sections[base + 2] + "\t" + getNormalizedName(sources[sections[base]]));
+            }
+        } catch (FileNotFoundException e) {
+            Logger.error("cannot write IID index to " + path + ": " + e.getMessage());
+        }
     }
 
     @TruffleBoundary
@@ -166,10 +434,7 @@ public abstract class SourceMapping {
 
     @TruffleBoundary
     public static synchronized void reset() {
-        iidGen = 0;
-        iidToLocationCache.clear();
-        sourceSet.clear();
-        idToSource.clear();
+        clear();
     }
 
     /**
@@ -213,13 +478,9 @@ public abstract class SourceMapping {
         return b;
     }
 
-    public static void addSyntheticLocation(SourceSection sourceSection, String name) {
+    public static synchronized void addSyntheticLocation(SourceSection sourceSection, String name) {
         assert GlobalConfiguration.SYMBOLIC_LOCATIONS : "SYMBOLIC_LOCATIONS not enabled";
-        boolean added = syntheticLocations.put(sourceSection, name) != null;
-        if (added) {
-            // invalidate cache
-            iidToLocationCache.remove(sourceSet.get(sourceSection));
-        }
+        syntheticLocations.put(sourceSection, name);
     }
 
     /**